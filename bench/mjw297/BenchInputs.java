@@ -0,0 +1,80 @@
+package mjw297;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import com.google.common.io.Files;
+
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRLexer;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRParser;
+
+import mjw297.Actions.Parsed;
+import mjw297.Ast.Program;
+
+/**
+ * Loads the inputs shared by the benchmarks. Paths are relative to the root
+ * of the repository, which is where {@code make bench} runs them from.
+ */
+class BenchInputs {
+    static String read(String path) throws IOException {
+        return Files.toString(new File(path), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * {@code source(spec)} returns a Xi program: either the file at path
+     * {@code spec}, or, if {@code spec} is {@code gen:<lines>:<arrays>}, a
+     * {@link WorkloadGen} program of about {@code lines} lines, {@code arrays}
+     * percent of which work on arrays.
+     */
+    static String source(String spec) throws IOException {
+        if (!spec.startsWith("gen:")) {
+            return read(spec);
+        }
+        String[] parts = spec.split(":");
+        WorkloadGen.Config config = new WorkloadGen.Config();
+        config.lines = Integer.parseInt(parts[1]);
+        config.arrays = Integer.parseInt(parts[2]);
+        return new WorkloadGen(config).generate();
+    }
+
+    /**
+     * {@code ir(spec)} returns an IR compilation unit: either the file at path
+     * {@code spec}, or, if {@code spec} is {@code gen:<copies>}, the functions
+     * of {@code bench/ir/workload.ir} repeated {@code copies} times, with the
+     * names and labels of each copy numbered apart.
+     */
+    static String ir(String spec) throws IOException {
+        if (!spec.startsWith("gen:")) {
+            return read(spec);
+        }
+        int copies = Integer.parseInt(spec.substring("gen:".length()));
+        String workload = read("bench/ir/workload.ir");
+        int funcs = workload.indexOf("(FUNC");
+        int end = workload.lastIndexOf(')');
+        StringBuilder ir = new StringBuilder(workload.substring(0, funcs));
+        for (int i = 0; i < copies; i++) {
+            ir.append(workload.substring(funcs, end)
+                              .replaceAll("\\b(fib|arith|arrays)", "$1" + i))
+              .append("\n    ");
+        }
+        return ir.append(")").toString();
+    }
+
+    static Program<Position> parse(String source) {
+        Parsed parsed = Actions.parse(new StringReader(source));
+        if (!parsed.prog.isPresent()) {
+            throw new IllegalStateException(
+                "benchmark input does not parse: " + parsed.exception.get().getMessage()
+            );
+        }
+        return parsed.prog.get();
+    }
+
+    static IRCompUnit parseIr(String ir) throws Exception {
+        IRParser parser = new IRParser(new IRLexer(new StringReader(ir)));
+        return parser.parse().<IRCompUnit> value();
+    }
+}
@@ -0,0 +1,78 @@
+package mjw297;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import mjw297.Ast.Program;
+
+/**
+ * Time taken by the lexer, the parser and both AST printers on a single Xi
+ * program, either from xisrc or generated by {@link WorkloadGen}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontendBench {
+    @Param({
+        "xisrc/ours/difftests/leaTest1.xi",
+        "xisrc/ours/difftests/exprs.xi",
+        "xisrc/theirs/enigma.xi",
+        "gen:10000:20",
+        "gen:10000:80",
+    })
+    public String source;
+
+    private String text;
+    private Program<Position> prog;
+
+    @Setup
+    public void setup() throws IOException {
+        text = BenchInputs.source(source);
+        prog = BenchInputs.parse(text);
+    }
+
+    @Benchmark
+    public Object lex() {
+        return Actions.lex(new StringReader(text));
+    }
+
+    @Benchmark
+    public Object parse() {
+        return Actions.parse(new StringReader(text));
+    }
+
+    @Benchmark
+    public int sexpOut() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SExpOut sexpOut = new SExpOut(out);
+        sexpOut.visit(prog);
+        sexpOut.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int sexpJaneStreetOut() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        SExpJaneStreetOut sexpOut = new SExpJaneStreetOut(out);
+        sexpOut.visit(prog);
+        sexpOut.flush();
+        return out.size();
+    }
+}
@@ -0,0 +1,127 @@
+package mjw297;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cornell.cs.cs4120.util.CodeWriterSExpPrinter;
+import edu.cornell.cs.cs4120.util.SExpPrinter;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRBinary;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRReader;
+
+/**
+ * Time taken to load IR with {@code IRParser}, with {@code IRReader} from
+ * characters and from UTF-8 bytes, and from the binary encoding of {@code
+ * IRBinary}, on {@code bench/ir/workload.ir} and on a unit of a few megabytes
+ * made of copies of it. Also the time taken by pretty-printing IR through
+ * {@code OptimalCodeWriter}, and by the IR simulator on the call-heavy,
+ * arithmetic-heavy and memory-heavy functions of {@code bench/ir/workload.ir}.
+ *
+ * The simulator's heap is never freed, so every run gets a fresh simulator,
+ * the same way {@code ./ir} runs a program. Each engine of {@link
+ * IrInterpreter} is measured separately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IrBench {
+    private String text;
+    private IRCompUnit compUnit;
+
+    @State(Scope.Benchmark)
+    public static class Engine {
+        @Param({"simulator", "closure", "bytecode"})
+        public String engine;
+    }
+
+    @State(Scope.Benchmark)
+    public static class Input {
+        @Param({"bench/ir/workload.ir", "gen:2000"})
+        public String ir;
+
+        String text;
+        ByteBuffer utf8;
+        ByteBuffer binary;
+
+        @Setup
+        public void setup() throws Exception {
+            text = BenchInputs.ir(ir);
+            utf8 = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IRBinary.write(new IRReader(new StringReader(text)).read(), out);
+            binary = ByteBuffer.wrap(out.toByteArray());
+        }
+    }
+
+    @Setup
+    public void setup() throws Exception {
+        text = BenchInputs.read("bench/ir/workload.ir");
+        compUnit = BenchInputs.parseIr(text);
+    }
+
+    @Benchmark
+    public IRCompUnit parse(Input in) throws Exception {
+        return BenchInputs.parseIr(in.text);
+    }
+
+    @Benchmark
+    public IRCompUnit read(Input in) throws Exception {
+        return new IRReader(new StringReader(in.text)).read();
+    }
+
+    @Benchmark
+    public IRCompUnit readUtf8(Input in) throws Exception {
+        return new IRReader(in.utf8.duplicate()).read();
+    }
+
+    @Benchmark
+    public IRNode readBinary(Input in) throws Exception {
+        return IRBinary.read(in.binary.duplicate());
+    }
+
+    @Benchmark
+    public int print() {
+        StringWriter sw = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(sw);
+             SExpPrinter sp = new CodeWriterSExpPrinter(pw)) {
+            compUnit.printSExp(sp);
+        }
+        return sw.getBuffer().length();
+    }
+
+    @Benchmark
+    public long simulateFib(Engine e) {
+        return IrInterpreter.simulator(e.engine, compUnit).call("fib", 15);
+    }
+
+    @Benchmark
+    public long simulateArith(Engine e) {
+        return IrInterpreter.simulator(e.engine, compUnit).call("arith", 2000);
+    }
+
+    @Benchmark
+    public long simulateArrays(Engine e) {
+        return IrInterpreter.simulator(e.engine, compUnit).call("arrays", 1000);
+    }
+}
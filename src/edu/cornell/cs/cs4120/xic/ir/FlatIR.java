@@ -0,0 +1,445 @@
+package edu.cornell.cs.cs4120.xic.ir;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cornell.cs.cs4120.util.InternalCompilerError;
+import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
+
+/**
+ * An IR tree stored as a handful of flat arrays rather than one object per
+ * node, which takes a fraction of the memory for large compilation units.
+ *
+ * Nodes are numbered in postorder, so the children of a node come before it
+ * and every subtree is a contiguous range of numbers ending at its root. The
+ * last node is the root of the tree. Each node has an opcode and an operand
+ * whose meaning depends on the opcode. Constants and names are stored once
+ * each, in a constant pool and a name table, and the labels of CJUMPs in a
+ * table of their own.
+ */
+public final class FlatIR {
+    /* Opcodes */
+    public static final byte COMPUNIT = 0; /* operand: name */
+    public static final byte FUNC = 1;     /* operand: name */
+    public static final byte SEQ = 2;
+    public static final byte ESEQ = 3;
+    public static final byte EXP = 4;
+    public static final byte MOVE = 5;
+    public static final byte JUMP = 6;
+    public static final byte CJUMP = 7;    /* operand: CJUMP number */
+    public static final byte LABEL = 8;    /* operand: name */
+    public static final byte RETURN = 9;
+    public static final byte CONST = 10;   /* operand: constant */
+    public static final byte TEMP = 11;    /* operand: name */
+    public static final byte NAME = 12;    /* operand: name */
+    public static final byte MEM = 13;     /* operand: IRMem.MemType ordinal */
+    public static final byte BINOP = 14;   /* operand: IRBinOp.OpType ordinal */
+    public static final byte CALL = 15;
+
+    private static final String[] OP_NAMES = {
+        "COMPUNIT", "FUNC", "SEQ", "ESEQ", "EXP", "MOVE", "JUMP", "CJUMP",
+        "LABEL", "RETURN", "CONST", "TEMP", "NAME", "MEM", "BINOP", "CALL"
+    };
+    private static final IRBinOp.OpType[] OP_TYPES = IRBinOp.OpType.values();
+    private static final IRMem.MemType[] MEM_TYPES = IRMem.MemType.values();
+
+    private int size;
+    private byte[] ops = new byte[16];
+    private int[] operands = new int[16];
+
+    /** the children of node i are children[childStart[i]..childStart[i+1]) */
+    private int[] childStart = new int[17];
+    private int[] children = new int[16];
+
+    /** the true and false labels of each CJUMP, by the CJUMP's operand */
+    private int[] cjumpLabels = new int[8];
+    private int cjumps;
+
+    private long[] constants = new long[16];
+    private int constantCount;
+    /** only needed while flattening */
+    private Map<Long, Integer> constantIds = new HashMap<>();
+
+    private final List<String> names = new ArrayList<>();
+    private final Map<String, Integer> nameIds = new HashMap<>();
+
+    /**
+     * Flatten the IR tree rooted at {@code root}. Subtrees that occur more
+     * than once in it, such as shared pure expressions, are stored once per
+     * occurrence.
+     */
+    public FlatIR(IRNode root) {
+        // Postorder is the order visitors leave nodes in; the children of
+        // the node being left are the last nodes left before it that are
+        // not yet anyone's child.
+        int[][] pending = {new int[16]};
+        int[] depth = {0};
+        new IRVisitor() {
+            @Override
+            protected IRNode leave(IRNode parent, IRNode n, IRNode n_, IRVisitor v_) {
+                int arity = n.children().size();
+                depth[0] -= arity;
+                int node = add(n, pending[0], depth[0], arity);
+                if (depth[0] == pending[0].length)
+                    pending[0] = Arrays.copyOf(pending[0], depth[0] * 2);
+                pending[0][depth[0]++] = node;
+                return n_;
+            }
+        }.visit(root);
+
+        ops = Arrays.copyOf(ops, size);
+        operands = Arrays.copyOf(operands, size);
+        childStart = Arrays.copyOf(childStart, size + 1);
+        children = Arrays.copyOf(children, childStart[size]);
+        cjumpLabels = Arrays.copyOf(cjumpLabels, 2 * cjumps);
+        constants = Arrays.copyOf(constants, constantCount);
+        constantIds = null;
+    }
+
+    /** Append node {@code n}, whose children are {@code kids[from..from+arity)} */
+    private int add(IRNode n, int[] kids, int from, int arity) {
+        if (size == ops.length) {
+            ops = Arrays.copyOf(ops, size * 2);
+            operands = Arrays.copyOf(operands, size * 2);
+            childStart = Arrays.copyOf(childStart, size * 2 + 1);
+        }
+        int start = childStart[size];
+        if (start + arity > children.length)
+            children = Arrays.copyOf(children, Math.max(children.length * 2, start + arity));
+        System.arraycopy(kids, from, children, start, arity);
+        childStart[size + 1] = start + arity;
+
+        byte op;
+        int operand = 0;
+        if (n instanceof IRCompUnit) {
+            op = COMPUNIT;
+            operand = nameId(((IRCompUnit) n).name());
+        }
+        else if (n instanceof IRFuncDecl) {
+            op = FUNC;
+            operand = nameId(((IRFuncDecl) n).name());
+        }
+        else if (n instanceof IRSeq) op = SEQ;
+        else if (n instanceof IRESeq) op = ESEQ;
+        else if (n instanceof IRExp) op = EXP;
+        else if (n instanceof IRMove) op = MOVE;
+        else if (n instanceof IRJump) op = JUMP;
+        else if (n instanceof IRCJump) {
+            IRCJump cjump = (IRCJump) n;
+            op = CJUMP;
+            operand = cjumps;
+            if (2 * cjumps == cjumpLabels.length)
+                cjumpLabels = Arrays.copyOf(cjumpLabels, cjumps * 4);
+            cjumpLabels[2 * cjumps] = nameId(cjump.trueLabel());
+            cjumpLabels[2 * cjumps + 1] =
+                    cjump.hasFalseLabel() ? nameId(cjump.falseLabel()) : -1;
+            cjumps++;
+        }
+        else if (n instanceof IRLabel) {
+            op = LABEL;
+            operand = nameId(((IRLabel) n).name());
+        }
+        else if (n instanceof IRReturn) op = RETURN;
+        else if (n instanceof IRConst) {
+            op = CONST;
+            operand = constantId(((IRConst) n).value());
+        }
+        else if (n instanceof IRTemp) {
+            op = TEMP;
+            operand = nameId(((IRTemp) n).name());
+        }
+        else if (n instanceof IRName) {
+            op = NAME;
+            operand = nameId(((IRName) n).name());
+        }
+        else if (n instanceof IRMem) {
+            op = MEM;
+            operand = ((IRMem) n).memType().ordinal();
+        }
+        else if (n instanceof IRBinOp) {
+            op = BINOP;
+            operand = ((IRBinOp) n).opType().ordinal();
+        }
+        else if (n instanceof IRCall) op = CALL;
+        else throw new InternalCompilerError("Cannot flatten " + n.label());
+
+        ops[size] = op;
+        operands[size] = operand;
+        return size++;
+    }
+
+    /**
+     * A visitor of a {@link FlatIR} tree.
+     */
+    public interface Visitor {
+        /**
+         * Called upon entering {@code node}, whose parent is {@code parent},
+         * or -1 at the root.
+         * @return whether to visit the children of {@code node}
+         */
+        default boolean enter(FlatIR ir, int parent, int node) {
+            return true;
+        }
+
+        /**
+         * Called after visiting the children of {@code node}, or after
+         * {@link #enter} returned false.
+         */
+        default void leave(FlatIR ir, int parent, int node) {
+        }
+    }
+
+    /**
+     * Visit the subtree rooted at {@code node} in depth-first order, with an
+     * explicit stack rather than recursion.
+     */
+    public void accept(Visitor v, int node) {
+        int[] nodes = new int[16];
+        int[] parents = new int[16];
+        int[] next = new int[16];
+        if (!v.enter(this, -1, node)) {
+            v.leave(this, -1, node);
+            return;
+        }
+        nodes[0] = node;
+        parents[0] = -1;
+        int depth = 1;
+        while (depth > 0) {
+            int top = depth - 1;
+            int n = nodes[top];
+            if (next[top] == childCount(n)) {
+                v.leave(this, parents[top], n);
+                depth--;
+                continue;
+            }
+            int child = child(n, next[top]++);
+            if (!v.enter(this, n, child)) {
+                v.leave(this, n, child);
+                continue;
+            }
+            if (depth == nodes.length) {
+                nodes = Arrays.copyOf(nodes, depth * 2);
+                parents = Arrays.copyOf(parents, depth * 2);
+                next = Arrays.copyOf(next, depth * 2);
+            }
+            nodes[depth] = child;
+            parents[depth] = n;
+            next[depth] = 0;
+            depth++;
+        }
+    }
+
+    /** Visit the whole tree */
+    public void accept(Visitor v) {
+        accept(v, root());
+    }
+
+    /** The number of nodes */
+    public int size() {
+        return size;
+    }
+
+    /** The root node */
+    public int root() {
+        return size - 1;
+    }
+
+    /** The opcode of {@code node} */
+    public byte op(int node) {
+        return ops[node];
+    }
+
+    public int childCount(int node) {
+        return childStart[node + 1] - childStart[node];
+    }
+
+    /** Child number {@code i} of {@code node} */
+    public int child(int node, int i) {
+        return children[childStart[node] + i];
+    }
+
+    /**
+     * The first node of the subtree rooted at {@code node}; the subtree is
+     * every node from there to {@code node}.
+     */
+    public int subtreeStart(int node) {
+        while (childCount(node) > 0)
+            node = child(node, 0);
+        return node;
+    }
+
+    /** The number of distinct constants in the tree */
+    public int constantCount() {
+        return constants.length;
+    }
+
+    /** The value of CONST {@code node} */
+    public long constant(int node) {
+        check(node, CONST);
+        return constants[operands[node]];
+    }
+
+    /** The name of COMPUNIT, FUNC, LABEL, TEMP or NAME {@code node} */
+    public String name(int node) {
+        byte op = ops[node];
+        if (op != COMPUNIT && op != FUNC && op != LABEL && op != TEMP && op != NAME)
+            throw new InternalCompilerError("Node " + node + " has no name");
+        return names.get(operands[node]);
+    }
+
+    /**
+     * The id of the name of COMPUNIT, FUNC, LABEL, TEMP or NAME {@code node}
+     * in {@link #names()}
+     */
+    public int nameId(int node) {
+        name(node);
+        return operands[node];
+    }
+
+    /** The distinct names in the tree, indexed by id */
+    public List<String> names() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public IRBinOp.OpType opType(int node) {
+        check(node, BINOP);
+        return OP_TYPES[operands[node]];
+    }
+
+    public IRMem.MemType memType(int node) {
+        check(node, MEM);
+        return MEM_TYPES[operands[node]];
+    }
+
+    public String trueLabel(int node) {
+        check(node, CJUMP);
+        return names.get(cjumpLabels[2 * operands[node]]);
+    }
+
+    /** The id of the true label of CJUMP {@code node} in {@link #names()} */
+    public int trueLabelId(int node) {
+        check(node, CJUMP);
+        return cjumpLabels[2 * operands[node]];
+    }
+
+    /**
+     * The id of the false label of CJUMP {@code node} in {@link #names()}, or
+     * -1 if it has none
+     */
+    public int falseLabelId(int node) {
+        check(node, CJUMP);
+        return cjumpLabels[2 * operands[node] + 1];
+    }
+
+    /** The false label of CJUMP {@code node}, or null if it has none */
+    public String falseLabel(int node) {
+        check(node, CJUMP);
+        int label = cjumpLabels[2 * operands[node] + 1];
+        return label < 0 ? null : names.get(label);
+    }
+
+    private void check(int node, byte op) {
+        if (ops[node] != op)
+            throw new InternalCompilerError("Node " + node + " is not a "
+                    + OP_NAMES[op]);
+    }
+
+    /** Rebuild the whole tree as {@link IRNode}s */
+    public IRNode toNode() {
+        return toNode(root());
+    }
+
+    /** Rebuild the subtree rooted at {@code node} as {@link IRNode}s */
+    public IRNode toNode(int node) {
+        // Children come before their parents, so one pass over the subtree
+        // builds every node after its children.
+        int start = subtreeStart(node);
+        IRNode[] built = new IRNode[node - start + 1];
+        for (int i = start; i <= node; i++) {
+            int first = childStart[i], arity = childCount(i);
+            IRNode[] kids = new IRNode[arity];
+            for (int c = 0; c < arity; c++)
+                kids[c] = built[children[first + c] - start];
+            built[i - start] = build(i, kids);
+        }
+        return built[node - start];
+    }
+
+    private IRNode build(int node, IRNode[] kids) {
+        switch (ops[node]) {
+        case COMPUNIT: {
+            Map<String, IRFuncDecl> functions = new LinkedHashMap<>();
+            for (IRNode kid : kids)
+                functions.put(((IRFuncDecl) kid).name(), (IRFuncDecl) kid);
+            return new IRCompUnit(name(node), functions);
+        }
+        case FUNC:
+            return new IRFuncDecl(name(node), (IRStmt) kids[0]);
+        case SEQ: {
+            List<IRStmt> stmts = new ArrayList<>(kids.length);
+            for (IRNode kid : kids)
+                stmts.add((IRStmt) kid);
+            return new IRSeq(stmts);
+        }
+        case ESEQ:
+            return new IRESeq((IRStmt) kids[0], (IRExpr) kids[1]);
+        case EXP:
+            return new IRExp((IRExpr) kids[0]);
+        case MOVE:
+            return new IRMove((IRExpr) kids[0], (IRExpr) kids[1]);
+        case JUMP:
+            return new IRJump((IRExpr) kids[0]);
+        case CJUMP:
+            return new IRCJump((IRExpr) kids[0], trueLabel(node), falseLabel(node));
+        case LABEL:
+            return new IRLabel(name(node));
+        case RETURN:
+            return new IRReturn();
+        case CONST:
+            return new IRConst(constant(node));
+        case TEMP:
+            return new IRTemp(name(node));
+        case NAME:
+            return new IRName(name(node));
+        case MEM:
+            return new IRMem((IRExpr) kids[0], memType(node));
+        case BINOP:
+            return new IRBinOp(opType(node), (IRExpr) kids[0], (IRExpr) kids[1]);
+        case CALL: {
+            List<IRExpr> args = new ArrayList<>(kids.length - 1);
+            for (int i = 1; i < kids.length; i++)
+                args.add((IRExpr) kids[i]);
+            return new IRCall((IRExpr) kids[0], args);
+        }
+        default:
+            throw new InternalCompilerError("Unknown opcode " + ops[node]);
+        }
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private int constantId(long value) {
+        Integer id = constantIds.get(value);
+        if (id == null) {
+            id = constantCount;
+            if (id == constants.length)
+                constants = Arrays.copyOf(constants, id * 2);
+            constants[constantCount++] = value;
+            constantIds.put(value, id);
+        }
+        return id;
+    }
+}
@@ -1,9 +1,11 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a binary operation
@@ -65,10 +67,17 @@ public class IRBinOp extends IRExpr {
     private OpType type;
     private IRExpr left, right;
 
+    /* Cached, so that comparing deep trees does not walk them */
+    private int hash;
+    private boolean pure;
+
     public IRBinOp(OpType type, IRExpr left, IRExpr right) {
         this.type = type;
         this.left = left;
         this.right = right;
+        hash = (31 * type.ordinal() + Objects.hashCode(left)) * 31
+                + Objects.hashCode(right);
+        pure = left != null && left.isPure() && right != null && right.isPure();
     }
 
     public OpType opType() {
@@ -89,22 +98,34 @@ public class IRBinOp extends IRExpr {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRExpr left = (IRExpr) v.visit(this, this.left);
-        IRExpr right = (IRExpr) v.visit(this, this.right);
+    public List<IRNode> children() {
+        return Arrays.<IRNode> asList(left, right);
+    }
 
-        if (left != this.left || right != this.right)
-            return new IRBinOp(type, left, right);
+    @Override
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRBinOp(type, (IRExpr) children.get(0),
+                           (IRExpr) children.get(1));
+    }
 
-        return this;
+    @Override
+    public boolean isPure() {
+        return pure;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof IRBinOp)) return false;
+        IRBinOp other = (IRBinOp) o;
+        return hash == other.hash && type == other.type
+                && Objects.equals(left, other.left)
+                && Objects.equals(right, other.right);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(left));
-        result = v.bind(result, v.visit(right));
-        return result;
+    public int hashCode() {
+        return hash;
     }
 
     @Override
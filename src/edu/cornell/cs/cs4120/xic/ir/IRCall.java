@@ -5,9 +5,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
 import edu.cornell.cs.cs4120.xic.ir.visit.CheckCanonicalIRVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a function call
@@ -50,31 +48,19 @@ public class IRCall extends IRExpr {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        boolean modified = false;
-
-        IRExpr target = (IRExpr) v.visit(this, this.target);
-        if (target != this.target) modified = true;
-
-        List<IRExpr> results = new ArrayList<>(args.size());
-        for (IRExpr arg : args) {
-            IRExpr newExpr = (IRExpr) v.visit(this, arg);
-            if (newExpr != arg) modified = true;
-            results.add(newExpr);
-        }
-
-        if (modified) return new IRCall(target, results);
-
-        return this;
+    public List<IRNode> children() {
+        List<IRNode> children = new ArrayList<>(args.size() + 1);
+        children.add(target);
+        children.addAll(args);
+        return children;
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(target));
-        for (IRExpr arg : args)
-            result = v.bind(result, v.visit(arg));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        List<IRExpr> results = new ArrayList<>(children.size() - 1);
+        for (IRNode arg : children.subList(1, children.size()))
+            results.add((IRExpr) arg);
+        return new IRCall((IRExpr) children.get(0), results);
     }
 
     @Override
@@ -1,11 +1,11 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a compilation unit
@@ -46,27 +46,18 @@ public class IRCompUnit extends IRNode {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        boolean modified = false;
+    public List<IRNode> children() {
+        return new ArrayList<>(functions.values());
+    }
 
+    @Override
+    public IRNode reconstruct(List<IRNode> children) {
         Map<String, IRFuncDecl> results = new LinkedHashMap<>();
-        for (IRFuncDecl func : functions.values()) {
-            IRFuncDecl newFunc = (IRFuncDecl) v.visit(this, func);
-            if (newFunc != func) modified = true;
+        for (IRNode func : children) {
+            IRFuncDecl newFunc = (IRFuncDecl) func;
             results.put(newFunc.name(), newFunc);
         }
-
-        if (modified) return new IRCompUnit(name, results);
-
-        return this;
-    }
-
-    @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        for (IRFuncDecl func : functions.values())
-            result = v.bind(result, v.visit(func));
-        return result;
+        return new IRCompUnit(name, results);
     }
 
     @Override
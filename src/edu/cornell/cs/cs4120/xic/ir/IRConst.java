@@ -8,6 +8,7 @@ import edu.cornell.cs.cs4120.util.SExpPrinter;
  */
 public class IRConst extends IRExpr {
     private long value;
+    private int hash;
 
     /**
      *
@@ -15,6 +16,7 @@ public class IRConst extends IRExpr {
      */
     public IRConst(long value) {
         this.value = value;
+        hash = Long.hashCode(value);
     }
 
     public long value() {
@@ -26,6 +28,24 @@ public class IRConst extends IRExpr {
         return "CONST(" + value + ")";
     }
 
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof IRConst)) return false;
+        IRConst other = (IRConst) o;
+        return hash == other.hash && value == other.value;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public void printSExp(SExpPrinter p) {
         p.startList();
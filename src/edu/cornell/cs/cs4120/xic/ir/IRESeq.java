@@ -1,9 +1,10 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Arrays;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
 import edu.cornell.cs.cs4120.xic.ir.visit.CheckCanonicalIRVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for an expression evaluated under side effects
@@ -37,22 +38,13 @@ public class IRESeq extends IRExpr {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRStmt stmt = (IRStmt) v.visit(this, this.stmt);
-        IRExpr expr = (IRExpr) v.visit(this, this.expr);
-
-        if (expr != this.expr || stmt != this.stmt)
-            return new IRESeq(stmt, expr);
-
-        return this;
+    public List<IRNode> children() {
+        return Arrays.<IRNode> asList(stmt, expr);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(stmt));
-        result = v.bind(result, v.visit(expr));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRESeq((IRStmt) children.get(0), (IRExpr) children.get(1));
     }
 
     @Override
@@ -1,8 +1,9 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Collections;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for evaluating an expression for side effects,
@@ -30,19 +31,13 @@ public class IRExp extends IRStmt {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRExpr expr = (IRExpr) v.visit(this, this.expr);
-
-        if (expr != this.expr) return new IRExp(expr);
-
-        return this;
+    public List<IRNode> children() {
+        return Collections.<IRNode> singletonList(expr);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(expr));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRExp((IRExpr) children.get(0));
     }
 
     @Override
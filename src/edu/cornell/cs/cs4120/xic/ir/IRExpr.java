@@ -7,6 +7,16 @@ import edu.cornell.cs.cs4120.xic.ir.visit.CheckCanonicalIRVisitor;
  */
 public abstract class IRExpr extends IRNode {
 
+    /**
+     * Whether evaluating this expression has no side effects, so that it can
+     * be shared between trees and structurally equal copies of it are
+     * interchangeable.
+     * @return false by default
+     */
+    public boolean isPure() {
+        return false;
+    }
+
     @Override
     public CheckCanonicalIRVisitor checkCanonicalEnter(
             CheckCanonicalIRVisitor v) {
@@ -1,8 +1,9 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Collections;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 import edu.cornell.cs.cs4120.xic.ir.visit.InsnMapsBuilder;
 
 /** An IR function declaration */
@@ -29,19 +30,13 @@ public class IRFuncDecl extends IRNode {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRStmt stmt = (IRStmt) v.visit(this, body);
-
-        if (stmt != body) return new IRFuncDecl(name, stmt);
-
-        return this;
+    public List<IRNode> children() {
+        return Collections.<IRNode> singletonList(body);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(body));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRFuncDecl(name, (IRStmt) children.get(0));
     }
 
     @Override
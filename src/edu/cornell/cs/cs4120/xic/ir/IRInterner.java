@@ -0,0 +1,70 @@
+package edu.cornell.cs.cs4120.xic.ir;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
+
+/**
+ * A factory for pure IR expressions that hash-conses them: it returns the
+ * same node for structurally equal expressions, so nodes it has made can be
+ * compared with {@code ==}, and IR built with it shares every repeated pure
+ * subexpression. Expressions with side effects are never shared.
+ */
+public class IRInterner {
+    private final Map<IRExpr, IRExpr> table = new HashMap<>();
+
+    /**
+     * The canonical node structurally equal to {@code e}, which is {@code e}
+     * itself if there was none yet. Its children must already be canonical.
+     */
+    @SuppressWarnings("unchecked")
+    private <E extends IRExpr> E canonical(E e) {
+        if (!e.isPure()) return e;
+        IRExpr c = table.putIfAbsent(e, e);
+        return c == null ? e : (E) c;
+    }
+
+    public IRConst constant(long value) {
+        return canonical(new IRConst(value));
+    }
+
+    public IRTemp temp(String name) {
+        return canonical(new IRTemp(name));
+    }
+
+    public IRName name(String name) {
+        return canonical(new IRName(name));
+    }
+
+    public IRMem mem(IRExpr expr) {
+        return mem(expr, IRMem.MemType.NORMAL);
+    }
+
+    public IRMem mem(IRExpr expr, IRMem.MemType memType) {
+        return canonical(new IRMem(canonical(expr), memType));
+    }
+
+    public IRBinOp binOp(IRBinOp.OpType type, IRExpr left, IRExpr right) {
+        return canonical(new IRBinOp(type, canonical(left), canonical(right)));
+    }
+
+    /**
+     * Replace every pure expression in the tree rooted at {@code n} with its
+     * canonical node.
+     * @return the new tree
+     */
+    public IRNode intern(IRNode n) {
+        return new IRVisitor() {
+            @Override
+            protected IRNode leave(IRNode parent, IRNode n, IRNode n_, IRVisitor v_) {
+                return n_ instanceof IRExpr ? canonical((IRExpr) n_) : n_;
+            }
+        }.visit(n);
+    }
+
+    /** The number of distinct expressions made so far */
+    public int size() {
+        return table.size();
+    }
+}
@@ -1,8 +1,9 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Collections;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a transfer of control
@@ -28,19 +29,13 @@ public class IRJump extends IRStmt {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRExpr expr = (IRExpr) v.visit(this, target);
-
-        if (expr != target) return new IRJump(expr);
-
-        return this;
+    public List<IRNode> children() {
+        return Collections.<IRNode> singletonList(target);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(target));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRJump((IRExpr) children.get(0));
     }
 
     @Override
@@ -1,9 +1,11 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a memory location
@@ -28,6 +30,10 @@ public class IRMem extends IRExpr {
     private IRExpr expr;
     private MemType memType;
 
+    /* Cached, so that comparing deep trees does not walk them */
+    private int hash;
+    private boolean pure;
+
     /**
      *
      * @param expr the address of this memory location
@@ -39,6 +45,8 @@ public class IRMem extends IRExpr {
     public IRMem(IRExpr expr, MemType memType) {
         this.expr = expr;
         this.memType = memType;
+        hash = 31 * Objects.hashCode(expr) + memType.ordinal();
+        pure = expr != null && expr.isPure();
     }
 
     public IRExpr expr() {
@@ -55,19 +63,32 @@ public class IRMem extends IRExpr {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRExpr expr = (IRExpr) v.visit(this, this.expr);
+    public List<IRNode> children() {
+        return Collections.<IRNode> singletonList(expr);
+    }
 
-        if (expr != this.expr) return new IRMem(expr, memType);
+    @Override
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRMem((IRExpr) children.get(0), memType);
+    }
 
-        return this;
+    @Override
+    public boolean isPure() {
+        return pure;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof IRMem)) return false;
+        IRMem other = (IRMem) o;
+        return hash == other.hash && memType == other.memType
+                && Objects.equals(expr, other.expr);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(expr));
-        return result;
+    public int hashCode() {
+        return hash;
     }
 
     @Override
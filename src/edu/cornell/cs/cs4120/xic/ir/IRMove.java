@@ -1,8 +1,9 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Arrays;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a move statement
@@ -36,22 +37,13 @@ public class IRMove extends IRStmt {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        IRExpr target = (IRExpr) v.visit(this, this.target);
-        IRExpr expr = (IRExpr) v.visit(this, this.expr);
-
-        if (target != this.target || expr != this.expr)
-            return new IRMove(target, expr);
-
-        return this;
+    public List<IRNode> children() {
+        return Arrays.<IRNode> asList(target, expr);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        result = v.bind(result, v.visit(target));
-        result = v.bind(result, v.visit(expr));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        return new IRMove((IRExpr) children.get(0), (IRExpr) children.get(1));
     }
 
     @Override
@@ -2,6 +2,9 @@ package edu.cornell.cs.cs4120.xic.ir;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import edu.cornell.cs.cs4120.util.CodeWriterSExpPrinter;
 import edu.cornell.cs.cs4120.util.SExpPrinter;
@@ -15,17 +18,50 @@ import edu.cornell.cs.cs4120.xic.ir.visit.InsnMapsBuilder;
  */
 public abstract class IRNode {
 
+    /**
+     * The children of this IR node, in the order visitors visit them.
+     * @return the children, which must not be modified
+     */
+    public List<IRNode> children() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * A copy of this IR node with different children.
+     * @param children replacements for the nodes {@link #children()} returns,
+     *          in the same order
+     * @return the new node
+     */
+    public IRNode reconstruct(List<IRNode> children) {
+        return this;
+    }
+
     /**
      * Visit the children of this IR node.
      * @param v the visitor
      * @return the result of visiting children of this node
      */
     public IRNode visitChildren(IRVisitor v) {
+        List<IRNode> children = children();
+        List<IRNode> results = null;
+        for (int i = 0; i < children.size(); i++) {
+            IRNode child = children.get(i);
+            IRNode newChild = v.visit(this, child);
+            if (newChild != child && results == null)
+                results = new ArrayList<>(children);
+            if (results != null) results.set(i, newChild);
+        }
+
+        if (results != null) return reconstruct(results);
+
         return this;
     }
 
     public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        return v.unit();
+        T result = v.unit();
+        for (IRNode child : children())
+            result = v.bind(result, v.visit(this, child));
+        return result;
     }
 
     public InsnMapsBuilder buildInsnMapsEnter(InsnMapsBuilder v) {
@@ -2,12 +2,11 @@ package edu.cornell.cs.cs4120.xic.ir;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import edu.cornell.cs.cs4120.util.SExpPrinter;
-import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
 import edu.cornell.cs.cs4120.xic.ir.visit.CheckCanonicalIRVisitor;
-import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
 
 /**
  * An intermediate representation for a sequence of statements
@@ -41,27 +40,16 @@ public class IRSeq extends IRStmt {
     }
 
     @Override
-    public IRNode visitChildren(IRVisitor v) {
-        boolean modified = false;
-
-        List<IRStmt> results = new ArrayList<>(stmts.size());
-        for (IRStmt stmt : stmts) {
-            IRStmt newStmt = (IRStmt) v.visit(this, stmt);
-            if (newStmt != stmt) modified = true;
-            results.add(newStmt);
-        }
-
-        if (modified) return new IRSeq(results);
-
-        return this;
+    public List<IRNode> children() {
+        return Collections.<IRNode> unmodifiableList(stmts);
     }
 
     @Override
-    public <T> T aggregateChildren(AggregateVisitor<T> v) {
-        T result = v.unit();
-        for (IRStmt stmt : stmts)
-            result = v.bind(result, v.visit(stmt));
-        return result;
+    public IRNode reconstruct(List<IRNode> children) {
+        List<IRStmt> results = new ArrayList<>(children.size());
+        for (IRNode stmt : children)
+            results.add((IRStmt) stmt);
+        return new IRSeq(results);
     }
 
     @Override
@@ -1,5 +1,7 @@
 package edu.cornell.cs.cs4120.xic.ir;
 
+import java.util.Objects;
+
 import edu.cornell.cs.cs4120.util.SExpPrinter;
 
 /**
@@ -8,6 +10,7 @@ import edu.cornell.cs.cs4120.util.SExpPrinter;
  */
 public class IRTemp extends IRExpr {
     private String name;
+    private int hash;
 
     /**
      *
@@ -15,6 +18,7 @@ public class IRTemp extends IRExpr {
      */
     public IRTemp(String name) {
         this.name = name;
+        hash = 31 + Objects.hashCode(name);
     }
 
     public String name() {
@@ -26,6 +30,24 @@ public class IRTemp extends IRExpr {
         return "TEMP(" + name + ")";
     }
 
+    @Override
+    public boolean isPure() {
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) return true;
+        if (!(o instanceof IRTemp)) return false;
+        IRTemp other = (IRTemp) o;
+        return hash == other.hash && Objects.equals(name, other.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public void printSExp(SExpPrinter p) {
         p.startList();
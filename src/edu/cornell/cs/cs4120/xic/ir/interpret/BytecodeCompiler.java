@@ -0,0 +1,520 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import static edu.cornell.cs.cs4120.xic.ir.interpret.ClassFileWriter.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCJump;
+import edu.cornell.cs.cs4120.xic.ir.IRCall;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRESeq;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
+import edu.cornell.cs.cs4120.xic.ir.IRJump;
+import edu.cornell.cs.cs4120.xic.ir.IRLabel;
+import edu.cornell.cs.cs4120.xic.ir.IRMem;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRName;
+import edu.cornell.cs.cs4120.xic.ir.IRReturn;
+import edu.cornell.cs.cs4120.xic.ir.IRSeq;
+import edu.cornell.cs.cs4120.xic.ir.IRStmt;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+import edu.cornell.cs.cs4120.xic.ir.interpret.ClassFileWriter.Code;
+import edu.cornell.cs.cs4120.xic.ir.interpret.ClassFileWriter.Label;
+import edu.cornell.cs.cs4120.xic.ir.interpret.ClassFileWriter.TooLarge;
+
+/**
+ * Translates the functions of a linked program into one JVM class for
+ * {@link BytecodeSimulator}. Function {@code f} becomes the static method
+ * {@code f<f>(sim, mem, globals, temps)}: temps become JVM locals, which
+ * start out as the garbage in {@code temps}, MEM becomes an
+ * access to the {@link Heap} {@code mem}, global registers are elements of
+ * {@code globals}, and JUMP and CJUMP become branches. The class implements
+ * {@link BytecodeSimulator.CompiledUnit} by dispatching to those methods.
+ *
+ * Only functions whose control flow stays inside them are translated: every
+ * jump targets a label of the same function, the body ends in a RETURN or
+ * JUMP, and every call is to a named function. Calls to functions that are
+ * not translated go back through the simulator.
+ */
+class BytecodeCompiler {
+    static final String CLASS_NAME = "edu/cornell/cs/cs4120/xic/ir/interpret/CompiledIR";
+
+    private static final String RUNTIME = "edu/cornell/cs/cs4120/xic/ir/interpret/BytecodeSimulator";
+    private static final String UNIT = RUNTIME + "$CompiledUnit";
+    private static final String HEAP = "edu/cornell/cs/cs4120/xic/ir/interpret/Heap";
+    private static final String FUNC_DESC = "(L" + RUNTIME + ";L" + HEAP + ";[J[J)V";
+
+    /* Locals of a generated function */
+    private static final int SIM = 0;
+    private static final int MEM = 1;
+    private static final int GLOBALS = 2;
+    private static final int TEMPS = 3;
+
+    private final LinkedProgram program;
+    private final Map<String, Long> nameToIndex;
+    private final Set<String> libraryFunctions;
+
+    /** the statements of each function body, SEQs flattened */
+    private final List<List<IRStmt>> bodies;
+    private final boolean[] compiled;
+
+    /* Per-function state */
+    private ClassFileWriter writer;
+    private Code code;
+    private int func;
+    private int scratch;
+    private Map<String, Label> labels;
+    private Map<String, Label> missingLabels;
+
+    BytecodeCompiler(LinkedProgram program, Map<String, Long> nameToIndex,
+                     Set<String> libraryFunctions) {
+        this.program = program;
+        this.nameToIndex = nameToIndex;
+        this.libraryFunctions = libraryFunctions;
+        this.bodies = new ArrayList<>();
+        this.compiled = new boolean[program.functions()];
+        for (int f = 0; f < program.functions(); f++) {
+            IRFuncDecl decl = (IRFuncDecl) program.insns[program.entries.get(f)];
+            List<IRStmt> body = new ArrayList<>();
+            flatten(decl.body(), body);
+            bodies.add(body);
+            compiled[f] = compilable(body);
+        }
+    }
+
+    /** Whether function {@code f} is translated into the class */
+    boolean compiled(int f) {
+        return compiled[f];
+    }
+
+    /**
+     * The class file of the translated functions. Functions too large for a
+     * JVM method are left to the simulator.
+     */
+    byte[] compile() throws TooLarge {
+        while (true) {
+            writer = new ClassFileWriter();
+            int tooLarge = -1;
+            for (func = 0; func < compiled.length; func++) {
+                if (!compiled[func]) continue;
+                try {
+                    compileFunction();
+                }
+                catch (TooLarge e) {
+                    tooLarge = func;
+                    break;
+                }
+            }
+            if (tooLarge < 0) break;
+            compiled[tooLarge] = false;
+        }
+        compileConstructor();
+        compileDispatch();
+        return writer.toByteArray(CLASS_NAME, "java/lang/Object", UNIT);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // what can be translated
+    ////////////////////////////////////////////////////////////////////////////
+    private static void flatten(IRStmt stmt, List<IRStmt> out) {
+        if (stmt instanceof IRSeq)
+            for (IRStmt s : ((IRSeq) stmt).stmts())
+                flatten(s, out);
+        else out.add(stmt);
+    }
+
+    private boolean compilable(List<IRStmt> body) {
+        if (body.isEmpty()) return false;
+        IRStmt last = body.get(body.size() - 1);
+        if (!(last instanceof IRReturn || last instanceof IRJump)) return false;
+
+        Set<String> names = new HashSet<>();
+        for (IRStmt s : body)
+            if (s instanceof IRLabel) names.add(((IRLabel) s).name());
+
+        for (IRStmt s : body) {
+            if (s instanceof IRLabel || s instanceof IRReturn) continue;
+            if (s instanceof IRJump) {
+                IRExpr target = ((IRJump) s).target();
+                if (!(target instanceof IRName)
+                        || !names.contains(((IRName) target).name()))
+                    return false;
+            }
+            else if (s instanceof IRCJump) {
+                IRCJump cjump = (IRCJump) s;
+                if (!localTarget(cjump.trueLabel(), names)
+                        || !localTarget(cjump.falseLabel(), names)
+                        || !compilable(cjump.expr()))
+                    return false;
+            }
+            else if (!compilableEffect(s)) return false;
+        }
+        return true;
+    }
+
+    /** A CJUMP target that falls through, is in this function, or is missing */
+    private boolean localTarget(String label, Set<String> names) {
+        return label == null || names.contains(label)
+                || !nameToIndex.containsKey(label);
+    }
+
+    private boolean compilableEffect(IRStmt s) {
+        if (s instanceof IRSeq) {
+            for (IRStmt t : ((IRSeq) s).stmts())
+                if (!compilableEffect(t)) return false;
+            return true;
+        }
+        if (s instanceof IRExp) return compilable(((IRExp) s).expr());
+        if (s instanceof IRMove) {
+            IRMove move = (IRMove) s;
+            IRExpr target = move.target();
+            if (target instanceof IRMem)
+                return compilable(((IRMem) target).expr()) && compilable(move.expr());
+            return target instanceof IRTemp && compilable(move.expr());
+        }
+        return false;
+    }
+
+    private boolean compilable(IRExpr e) {
+        if (e instanceof IRConst || e instanceof IRTemp) return true;
+        if (e instanceof IRBinOp)
+            return compilable(((IRBinOp) e).left())
+                    && compilable(((IRBinOp) e).right());
+        if (e instanceof IRMem) return compilable(((IRMem) e).expr());
+        if (e instanceof IRName) {
+            String name = ((IRName) e).name();
+            return libraryFunctions.contains(name) || nameToIndex.containsKey(name);
+        }
+        if (e instanceof IRESeq)
+            return compilableEffect(((IRESeq) e).stmt())
+                    && compilable(((IRESeq) e).expr());
+        if (e instanceof IRCall) {
+            IRCall call = (IRCall) e;
+            if (!(call.target() instanceof IRName)) return false;
+            String name = ((IRName) call.target()).name();
+            if (!libraryFunctions.contains(name) && program.function(name) < 0)
+                return false;
+            for (IRExpr arg : call.args())
+                if (!compilable(arg)) return false;
+            return true;
+        }
+        return false;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // methods
+    ////////////////////////////////////////////////////////////////////////////
+    private static int local(int slot) {
+        return TEMPS + 1 + 2 * slot;
+    }
+
+    private void compileFunction() throws TooLarge {
+        int temps = program.locals.get(func).size();
+        code = writer.new Code(local(temps));
+        scratch = local(temps);
+        if (scratch > 65535)
+            throw new TooLarge("too many temps");
+        labels = new HashMap<>();
+        missingLabels = new HashMap<>();
+
+        // A temp read before it is written gives the frame's garbage, as it
+        // does in the simulator; the verifier wants every local written too.
+        for (int slot = 0; slot < temps; slot++) {
+            code.local(ALOAD, TEMPS, 1);
+            code.pushInt(slot);
+            code.op(LALOAD, 0);
+            code.local(LSTORE, local(slot), -2);
+        }
+
+        for (IRStmt s : bodies.get(func))
+            stmt(s);
+
+        for (Map.Entry<String, Label> missing : missingLabels.entrySet()) {
+            code.mark(missing.getValue());
+            code.resetStack();
+            code.pushString(missing.getKey());
+            code.invoke(INVOKESTATIC, RUNTIME, "missingLabel",
+                    "(Ljava/lang/String;)Ljava/lang/RuntimeException;", 1, 1);
+            code.op(ATHROW, -1);
+        }
+        if (code.maxLocals > 65535)
+            throw new TooLarge("too many locals");
+        writer.addMethod(ACC_PUBLIC | ACC_STATIC, "f" + func, FUNC_DESC, code);
+    }
+
+    private void compileConstructor() throws TooLarge {
+        code = writer.new Code(1);
+        code.local(ALOAD, 0, 1);
+        code.invoke(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", 1, 0);
+        code.op(RETURN, 0);
+        writer.addMethod(ACC_PUBLIC, "<init>", "()V", code);
+    }
+
+    /** call(func, sim, mem, globals, temps) */
+    private void compileDispatch() throws TooLarge {
+        code = writer.new Code(6);
+        Label done = code.newLabel();
+        if (compiled.length > 0) {
+            Label[] cases = new Label[compiled.length];
+            for (int f = 0; f < compiled.length; f++)
+                cases[f] = compiled[f] ? code.newLabel() : done;
+            code.local(ILOAD, 1, 1);
+            code.tableswitch(done, cases);
+            for (int f = 0; f < compiled.length; f++) {
+                if (!compiled[f]) continue;
+                code.mark(cases[f]);
+                code.resetStack();
+                code.local(ALOAD, 2, 1);
+                code.local(ALOAD, 3, 1);
+                code.local(ALOAD, 4, 1);
+                code.local(ALOAD, 5, 1);
+                code.invoke(INVOKESTATIC, CLASS_NAME, "f" + f, FUNC_DESC, 4, 0);
+                code.op(RETURN, 0);
+            }
+        }
+        code.mark(done);
+        code.resetStack();
+        code.op(RETURN, 0);
+        writer.addMethod(ACC_PUBLIC, "call", "(IL" + RUNTIME + ";L" + HEAP + ";[J[J)V",
+                code);
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // statements
+    ////////////////////////////////////////////////////////////////////////////
+    private Label label(String name) {
+        if (!nameToIndex.containsKey(name))
+            return missingLabels.computeIfAbsent(name, n -> code.newLabel());
+        return labels.computeIfAbsent(name, n -> code.newLabel());
+    }
+
+    private void stmt(IRStmt s) {
+        if (s instanceof IRLabel)
+            code.mark(label(((IRLabel) s).name()));
+        else if (s instanceof IRJump) {
+            code.jump(GOTO, label(((IRName) ((IRJump) s).target()).name()), 0);
+            code.resetStack();
+        }
+        else if (s instanceof IRCJump)
+            cjump((IRCJump) s);
+        else if (s instanceof IRReturn) {
+            code.op(RETURN, 0);
+            code.resetStack();
+        }
+        else effect(s);
+    }
+
+    private static int branch(IRBinOp.OpType op) {
+        switch (op) {
+        case EQ:  return IFEQ;
+        case NEQ: return IFNE;
+        case LT:  return IFLT;
+        case GT:  return IFGT;
+        case LEQ: return IFLE;
+        case GEQ: return IFGE;
+        default:  return -1;
+        }
+    }
+
+    private void cjump(IRCJump cjump) {
+        Label t = label(cjump.trueLabel());
+        Label f = cjump.falseLabel() == null ? null : label(cjump.falseLabel());
+        IRExpr cond = cjump.expr();
+
+        // A comparison is always 0 or 1, so it can branch directly.
+        if (cond instanceof IRBinOp && branch(((IRBinOp) cond).opType()) >= 0) {
+            IRBinOp cmp = (IRBinOp) cond;
+            expr(cmp.left());
+            expr(cmp.right());
+            code.op(LCMP, -3);
+            code.jump(branch(cmp.opType()), t, -1);
+            if (f != null) {
+                code.jump(GOTO, f, 0);
+                code.resetStack();
+            }
+            return;
+        }
+
+        int value = scratch;
+        expr(cond);
+        code.local(LSTORE, value, -2);
+        Label next = code.newLabel();
+        code.local(LLOAD, value, 2);
+        code.pushLong(0);
+        code.op(LCMP, -3);
+        code.jump(IFEQ, f == null ? next : f, -1);
+        code.local(LLOAD, value, 2);
+        code.pushLong(1);
+        code.op(LCMP, -3);
+        code.jump(IFEQ, t, -1);
+        code.local(LLOAD, value, 2);
+        code.invoke(INVOKESTATIC, RUNTIME, "invalidCJump",
+                "(J)Ljava/lang/RuntimeException;", 2, 1);
+        code.op(ATHROW, -1);
+        code.resetStack();
+        code.mark(next);
+    }
+
+    private void effect(IRStmt s) {
+        if (s instanceof IRSeq) {
+            for (IRStmt t : ((IRSeq) s).stmts())
+                effect(t);
+        }
+        else if (s instanceof IRExp) {
+            expr(((IRExp) s).expr());
+            code.op(POP2, -2);
+        }
+        else {
+            IRMove move = (IRMove) s;
+            if (move.target() instanceof IRMem) {
+                code.local(ALOAD, MEM, 1);
+                expr(((IRMem) move.target()).expr());
+                code.invoke(INVOKESTATIC, HEAP, "index", "(J)J", 2, 2);
+                expr(move.expr());
+                code.invoke(INVOKEVIRTUAL, HEAP, "set", "(JJ)V", 5, 0);
+                return;
+            }
+            String name = ((IRTemp) move.target()).name();
+            if (LinkedProgram.isGlobalRegister(name)) {
+                code.local(ALOAD, GLOBALS, 1);
+                code.pushInt(program.findGlobalSlot(name));
+                expr(move.expr());
+                code.op(LASTORE, -4);
+            }
+            else {
+                expr(move.expr());
+                code.local(LSTORE, local(program.findLocalSlot(func, name)), -2);
+            }
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // expressions
+    ////////////////////////////////////////////////////////////////////////////
+    private void expr(IRExpr e) {
+        if (e instanceof IRConst)
+            code.pushLong(((IRConst) e).value());
+        else if (e instanceof IRTemp) {
+            String name = ((IRTemp) e).name();
+            if (LinkedProgram.isGlobalRegister(name)) {
+                code.local(ALOAD, GLOBALS, 1);
+                code.pushInt(program.findGlobalSlot(name));
+                code.op(LALOAD, 0);
+            }
+            else code.local(LLOAD, local(program.findLocalSlot(func, name)), 2);
+        }
+        else if (e instanceof IRBinOp)
+            binop((IRBinOp) e);
+        else if (e instanceof IRMem) {
+            code.local(ALOAD, MEM, 1);
+            expr(((IRMem) e).expr());
+            code.invoke(INVOKEVIRTUAL, HEAP, "load", "(J)J", 3, 2);
+        }
+        else if (e instanceof IRCall)
+            call((IRCall) e);
+        else if (e instanceof IRName) {
+            String name = ((IRName) e).name();
+            code.pushLong(libraryFunctions.contains(name) ? -1 : nameToIndex.get(name));
+        }
+        else {
+            IRESeq eseq = (IRESeq) e;
+            effect(eseq.stmt());
+            expr(eseq.expr());
+        }
+    }
+
+    private void binop(IRBinOp e) {
+        expr(e.left());
+        expr(e.right());
+        switch (e.opType()) {
+        case ADD: code.op(LADD, -2); return;
+        case SUB: code.op(LSUB, -2); return;
+        case MUL: code.op(LMUL, -2); return;
+        case AND: code.op(LAND, -2); return;
+        case OR:  code.op(LOR, -2);  return;
+        case XOR: code.op(LXOR, -2); return;
+        case LSHIFT:
+            code.op(L2I, -1);
+            code.op(LSHL, -1);
+            return;
+        case RSHIFT:
+            code.op(L2I, -1);
+            code.op(LUSHR, -1);
+            return;
+        case ARSHIFT:
+            code.op(L2I, -1);
+            code.op(LSHR, -1);
+            return;
+        default:
+            code.invoke(INVOKESTATIC, RUNTIME, e.opType().name().toLowerCase(),
+                    "(JJ)J", 4, 2);
+        }
+    }
+
+    private void call(IRCall call) {
+        String name = ((IRName) call.target()).name();
+        List<IRExpr> args = call.args();
+
+        // Evaluate every argument before any of them is passed, since
+        // evaluating one may itself make a call.
+        int base = scratch;
+        scratch += 2 * args.size();
+        for (int i = 0; i < args.size(); i++) {
+            expr(args.get(i));
+            code.local(LSTORE, base + 2 * i, -2);
+        }
+
+        int library = program.library(name);
+        if (library >= 0) {
+            code.local(ALOAD, SIM, 1);
+            code.pushInt(library);
+            code.pushInt(args.size());
+            code.newLongArray();
+            for (int i = 0; i < args.size(); i++) {
+                code.op(DUP, 1);
+                code.pushInt(i);
+                code.local(LLOAD, base + 2 * i, 2);
+                code.op(LASTORE, -4);
+            }
+            code.invoke(INVOKEVIRTUAL, RUNTIME, "callLibrary",
+                    "(I[J)J", 3, 2);
+        }
+        else {
+            int f = program.function(name);
+            for (int i = 0; i < args.size(); i++) {
+                int slot = program.argSlot(i);
+                if (slot < 0) continue;
+                code.local(ALOAD, GLOBALS, 1);
+                code.pushInt(slot);
+                code.local(LLOAD, base + 2 * i, 2);
+                code.op(LASTORE, -4);
+            }
+            if (compiled[f]) {
+                code.local(ALOAD, SIM, 1);
+                code.local(ALOAD, MEM, 1);
+                code.local(ALOAD, GLOBALS, 1);
+                code.local(ALOAD, SIM, 1);
+                code.pushInt(f);
+                code.invoke(INVOKEVIRTUAL, RUNTIME, "newTemps", "(I)[J", 2, 1);
+                code.invoke(INVOKESTATIC, CLASS_NAME, "f" + f, FUNC_DESC, 4, 0);
+            }
+            else {
+                code.local(ALOAD, SIM, 1);
+                code.pushInt(f);
+                code.invoke(INVOKEVIRTUAL, RUNTIME, "runInterpreted", "(I)V", 2, 0);
+            }
+            code.local(ALOAD, GLOBALS, 1);
+            code.pushInt(program.findGlobalSlot(Configuration.ABSTRACT_RET_PREFIX + 0));
+            code.op(LALOAD, 0);
+        }
+        scratch = base;
+    }
+}
@@ -0,0 +1,177 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.math.BigInteger;
+
+import edu.cornell.cs.cs4120.util.InternalCompilerError;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.interpret.ClassFileWriter.TooLarge;
+
+/**
+ * An IR interpreter that translates functions into JVM bytecode once, loads
+ * the result as a class of its own, and lets the JVM run them. See {@link
+ * BytecodeCompiler} for the translation.
+ *
+ * Functions that cannot be translated, e.g. because they jump into another
+ * function or fall off their end, run in {@link IRSimulator} as usual, and
+ * if the class cannot be generated or loaded at all every function does.
+ * The simulator's debug output is not produced for translated functions.
+ * With a {@link Collector} enabled nothing is translated, and with a {@link
+ * Profiler} enabled nothing translated is run.
+ */
+public class BytecodeSimulator extends IRSimulator {
+    /** The entry point of the generated class */
+    public interface CompiledUnit {
+        void call(int func, BytecodeSimulator sim, Heap mem, long[] globals,
+                  long[] temps);
+    }
+
+    /** the generated class, or null if there is none */
+    private CompiledUnit unit;
+
+    /** which functions {@code unit} can run */
+    private boolean[] compiled;
+
+    /**
+     * Construct a bytecode-compiling IR interpreter with a default heap size
+     * @param compUnit the compilation unit to be interpreted
+     */
+    public BytecodeSimulator(IRCompUnit compUnit) {
+        this(compUnit, DEFAULT_HEAP_SIZE);
+    }
+
+    /**
+     * Construct a bytecode-compiling IR interpreter
+     * @param compUnit the compilation unit to be interpreted
+     * @param heapSize the heap size
+     */
+    public BytecodeSimulator(IRCompUnit compUnit, int heapSize) {
+        super(compUnit, heapSize);
+    }
+
+    /**
+     * Construct a bytecode-compiling IR interpreter that reads from {@code in}
+     * and writes to {@code out}
+     * @param compUnit the compilation unit to be interpreted
+     * @param heapSize the heap size, in words
+     * @param in the program's input
+     * @param out the program's output
+     */
+    public BytecodeSimulator(IRCompUnit compUnit, int heapSize, InputStream in,
+                             PrintStream out) {
+        super(compUnit, heapSize, in, out);
+    }
+
+    /**
+     * Whether function {@code name} runs as bytecode rather than in the
+     * simulator.
+     */
+    public boolean isCompiled(String name) {
+        if (compiled == null) compile();
+        int func = program.function(name);
+        return func >= 0 && compiled[func];
+    }
+
+    @Override
+    public Collector enableCollector() {
+        // The temps of translated functions are JVM locals, which the
+        // collector cannot see, so with a collector everything is interpreted.
+        compiled = new boolean[program.functions()];
+        unit = null;
+        return super.enableCollector();
+    }
+
+    @Override
+    protected void execute(ExecutionFrame frame) {
+        // IRSimulator's constructor runs ctors before ours can compile, so
+        // compile on first use.
+        if (compiled == null) compile();
+
+        // Only the simulator counts what it executes.
+        if (compiled[frame.func] && profiler == null)
+            unit.call(frame.func, this, mem, globals, frame.temps);
+        else super.execute(frame);
+    }
+
+    private void compile() {
+        BytecodeCompiler compiler =
+                new BytecodeCompiler(program, nameToIndex, libraryFunctions);
+        boolean[] compiled = new boolean[program.functions()];
+        try {
+            byte[] bytes = compiler.compile();
+            Class<?> c = new Loader().define(bytes);
+            unit = (CompiledUnit) c.newInstance();
+            for (int f = 0; f < compiled.length; f++)
+                compiled[f] = compiler.compiled(f);
+        }
+        catch (TooLarge | LinkageError | ReflectiveOperationException e) {
+            // Interpret everything.
+            unit = null;
+        }
+        this.compiled = compiled;
+    }
+
+    /** Each simulator loads its class in a loader of its own */
+    private static class Loader extends ClassLoader {
+        Loader() {
+            super(BytecodeSimulator.class.getClassLoader());
+        }
+
+        Class<?> define(byte[] bytes) {
+            return defineClass(BytecodeCompiler.CLASS_NAME.replace('/', '.'),
+                    bytes, 0, bytes.length);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // called by generated code
+    ////////////////////////////////////////////////////////////////////////////
+    /** Run function {@code func}, whose arguments are already in place */
+    public void runInterpreted(int func) {
+        super.execute(new ExecutionFrame(func));
+    }
+
+    @Override
+    public long[] newTemps(int func) {
+        return super.newTemps(func);
+    }
+
+    @Override
+    public long callLibrary(int library, long[] args) {
+        return super.callLibrary(library, args);
+    }
+
+    public static long div(long l, long r) {
+        if (r == 0) throw new Trap("Division by zero!");
+        return l / r;
+    }
+
+    public static long mod(long l, long r) {
+        if (r == 0) throw new Trap("Division by zero!");
+        return l % r;
+    }
+
+    public static long hmul(long l, long r) {
+        return BigInteger.valueOf(l)
+                         .multiply(BigInteger.valueOf(r))
+                         .shiftRight(64)
+                         .longValue();
+    }
+
+    public static long eq(long l, long r)  { return l == r ? 1 : 0; }
+    public static long neq(long l, long r) { return l != r ? 1 : 0; }
+    public static long lt(long l, long r)  { return l < r ? 1 : 0; }
+    public static long gt(long l, long r)  { return l > r ? 1 : 0; }
+    public static long leq(long l, long r) { return l <= r ? 1 : 0; }
+    public static long geq(long l, long r) { return l >= r ? 1 : 0; }
+
+    public static RuntimeException invalidCJump(long value) {
+        return new InternalCompilerError("Invalid value in CJUMP - expected 0/1, got "
+                + value);
+    }
+
+    public static RuntimeException missingLabel(String name) {
+        return new Trap("Could not find label '" + name + "'!");
+    }
+}
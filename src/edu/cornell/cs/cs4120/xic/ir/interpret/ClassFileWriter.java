@@ -0,0 +1,413 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cornell.cs.cs4120.util.InternalCompilerError;
+
+/**
+ * Just enough of a JVM class file assembler to write the classes {@link
+ * BytecodeCompiler} generates. Classes are written as version 49 (Java 5)
+ * class files, which the JVM verifies without stack map frames, so branches
+ * need no more bookkeeping than their offsets.
+ */
+class ClassFileWriter {
+    /** Thrown when a method or the constant pool outgrows the class file format */
+    static class TooLarge extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        TooLarge(String message) {
+            super(message);
+        }
+    }
+
+    static final int ACC_PUBLIC = 0x0001;
+    static final int ACC_STATIC = 0x0008;
+    static final int ACC_FINAL = 0x0010;
+    static final int ACC_SUPER = 0x0020;
+
+    /* Opcodes */
+    static final int ICONST_0 = 0x03;
+    static final int LCONST_0 = 0x09;
+    static final int LCONST_1 = 0x0a;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int LDC_W = 0x13;
+    static final int LDC2_W = 0x14;
+    static final int ILOAD = 0x15;
+    static final int LLOAD = 0x16;
+    static final int ALOAD = 0x19;
+    static final int LALOAD = 0x2f;
+    static final int LSTORE = 0x37;
+    static final int LASTORE = 0x50;
+    static final int POP2 = 0x58;
+    static final int DUP = 0x59;
+    static final int LADD = 0x61;
+    static final int LSUB = 0x65;
+    static final int LMUL = 0x69;
+    static final int LSHL = 0x79;
+    static final int LSHR = 0x7b;
+    static final int LUSHR = 0x7d;
+    static final int LAND = 0x7f;
+    static final int LOR = 0x81;
+    static final int LXOR = 0x83;
+    static final int L2I = 0x88;
+    static final int LCMP = 0x94;
+    static final int IFEQ = 0x99;
+    static final int IFNE = 0x9a;
+    static final int IFLT = 0x9b;
+    static final int IFGE = 0x9c;
+    static final int IFGT = 0x9d;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int TABLESWITCH = 0xaa;
+    static final int RETURN = 0xb1;
+    static final int INVOKEVIRTUAL = 0xb6;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int NEWARRAY = 0xbc;
+    static final int ATHROW = 0xbf;
+    static final int WIDE = 0xc4;
+
+    static final int T_LONG = 11;
+
+    private final ByteArrayOutputStream poolBytes = new ByteArrayOutputStream();
+    private final DataOutputStream pool = new DataOutputStream(poolBytes);
+    private final Map<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final List<byte[]> methods = new ArrayList<>();
+
+    ////////////////////////////////////////////////////////////////////////////
+    // constant pool
+    ////////////////////////////////////////////////////////////////////////////
+    private int constant(String key, int slots, PoolWriter writer) {
+        Integer index = poolIndex.get(key);
+        if (index != null) return index;
+        try {
+            writer.write(pool);
+        }
+        catch (IOException e) {
+            throw new InternalCompilerError(e);
+        }
+        index = poolCount;
+        poolCount += slots;
+        poolIndex.put(key, index);
+        return index;
+    }
+
+    private interface PoolWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    int utf8(String s) {
+        return constant("U" + s, 1, out -> {
+            out.writeByte(1);
+            out.writeUTF(s);
+        });
+    }
+
+    int classRef(String internalName) {
+        int name = utf8(internalName);
+        return constant("C" + internalName, 1, out -> {
+            out.writeByte(7);
+            out.writeShort(name);
+        });
+    }
+
+    int string(String s) {
+        int utf = utf8(s);
+        return constant("S" + s, 1, out -> {
+            out.writeByte(8);
+            out.writeShort(utf);
+        });
+    }
+
+    int integer(int value) {
+        return constant("I" + value, 1, out -> {
+            out.writeByte(3);
+            out.writeInt(value);
+        });
+    }
+
+    int longConstant(long value) {
+        return constant("J" + value, 2, out -> {
+            out.writeByte(5);
+            out.writeLong(value);
+        });
+    }
+
+    private int nameAndType(String name, String desc) {
+        int n = utf8(name);
+        int d = utf8(desc);
+        return constant("N" + name + ":" + desc, 1, out -> {
+            out.writeByte(12);
+            out.writeShort(n);
+            out.writeShort(d);
+        });
+    }
+
+    int methodRef(String owner, String name, String desc) {
+        int c = classRef(owner);
+        int nt = nameAndType(name, desc);
+        return constant("M" + owner + "." + name + desc, 1, out -> {
+            out.writeByte(10);
+            out.writeShort(c);
+            out.writeShort(nt);
+        });
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // methods
+    ////////////////////////////////////////////////////////////////////////////
+    void addMethod(int access, String name, String desc, Code code)
+            throws TooLarge {
+        byte[] bytes = code.bytes();
+        if (bytes.length > 65535)
+            throw new TooLarge("method " + name + " is too large");
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeShort(access);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(desc));
+            out.writeShort(1);
+            out.writeShort(utf8("Code"));
+            out.writeInt(12 + bytes.length);
+            out.writeShort(code.maxStack);
+            out.writeShort(code.maxLocals);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeShort(0);
+            out.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new InternalCompilerError(e);
+        }
+        methods.add(buf.toByteArray());
+    }
+
+    byte[] toByteArray(String name, String superName, String... interfaces)
+            throws TooLarge {
+        int thisClass = classRef(name);
+        int superClass = classRef(superName);
+        int[] ifaces = new int[interfaces.length];
+        for (int i = 0; i < interfaces.length; i++)
+            ifaces[i] = classRef(interfaces[i]);
+        if (poolCount > 65535)
+            throw new TooLarge("constant pool of " + name + " is too large");
+
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(49);
+            out.writeShort(poolCount);
+            poolBytes.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(ifaces.length);
+            for (int i : ifaces)
+                out.writeShort(i);
+            out.writeShort(0);
+            out.writeShort(methods.size());
+            for (byte[] m : methods)
+                out.write(m);
+            out.writeShort(0);
+        }
+        catch (IOException e) {
+            throw new InternalCompilerError(e);
+        }
+        return buf.toByteArray();
+    }
+
+    /** A position in a method's code that branches can target */
+    static class Label {
+        private int offset = -1;
+        private final List<int[]> uses = new ArrayList<>();
+    }
+
+    /**
+     * The code of one method. Every emit method takes the change it makes to
+     * the depth of the operand stack, in slots, so that the maximum depth can
+     * be worked out as the code is written.
+     */
+    class Code {
+        private byte[] code = new byte[256];
+        private final List<Label> labels = new ArrayList<>();
+        private int length;
+        private int depth;
+        int maxStack;
+        int maxLocals;
+
+        Code(int maxLocals) {
+            this.maxLocals = maxLocals;
+        }
+
+        private void put(int b) {
+            if (length == code.length)
+                code = Arrays.copyOf(code, length * 2);
+            code[length++] = (byte) b;
+        }
+
+        private void put2(int s) {
+            put(s >> 8);
+            put(s);
+        }
+
+        private void stack(int delta) {
+            depth += delta;
+            maxStack = Math.max(maxStack, depth);
+        }
+
+        /** The operand stack is empty here, e.g. after an unconditional jump */
+        void resetStack() {
+            depth = 0;
+        }
+
+        void op(int opcode, int delta) {
+            put(opcode);
+            stack(delta);
+        }
+
+        void pushInt(int value) {
+            if (value >= -1 && value <= 5)
+                put(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                put(BIPUSH);
+                put(value);
+            }
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                put(SIPUSH);
+                put2(value);
+            }
+            else {
+                put(LDC_W);
+                put2(integer(value));
+            }
+            stack(1);
+        }
+
+        void pushLong(long value) {
+            if (value == 0 || value == 1)
+                put(LCONST_0 + (int) value);
+            else {
+                put(LDC2_W);
+                put2(longConstant(value));
+            }
+            stack(2);
+        }
+
+        void pushString(String value) {
+            put(LDC_W);
+            put2(string(value));
+            stack(1);
+        }
+
+        /** A load or store of local {@code index}; {@code delta} as for op */
+        void local(int opcode, int index, int delta) {
+            if (index > 255) {
+                put(WIDE);
+                put(opcode);
+                put2(index);
+            }
+            else {
+                put(opcode);
+                put(index);
+            }
+            stack(delta);
+            int width = opcode == LLOAD || opcode == LSTORE ? 2 : 1;
+            maxLocals = Math.max(maxLocals, index + width);
+        }
+
+        void newLongArray() {
+            put(NEWARRAY);
+            put(T_LONG);
+            stack(0);
+        }
+
+        /** Invoke a method taking {@code args} slots and returning {@code ret} */
+        void invoke(int opcode, String owner, String name, String desc,
+                    int args, int ret) {
+            put(opcode);
+            put2(methodRef(owner, name, desc));
+            stack(ret - args);
+        }
+
+        void jump(int opcode, Label target, int delta) {
+            target.uses.add(new int[] {length, length + 1});
+            put(opcode);
+            put2(0);
+            stack(delta);
+        }
+
+        Label newLabel() {
+            Label label = new Label();
+            labels.add(label);
+            return label;
+        }
+
+        void mark(Label label) {
+            label.offset = length;
+        }
+
+        /** A tableswitch on the int on the stack over {@code 0..cases.length-1} */
+        void tableswitch(Label dflt, Label[] cases) {
+            int start = length;
+            put(TABLESWITCH);
+            while (length % 4 != 0)
+                put(0);
+            putBranch(start, dflt);
+            put4(0);
+            put4(cases.length - 1);
+            for (Label l : cases)
+                putBranch(start, l);
+            stack(-1);
+        }
+
+        private void put4(int i) {
+            put2(i >> 16);
+            put2(i);
+        }
+
+        private void putBranch(int from, Label target) {
+            target.uses.add(new int[] {from, length, 4});
+            put4(0);
+        }
+
+        /** Resolve every branch and return the finished code */
+        byte[] bytes() throws TooLarge {
+            for (Label label : labels)
+                resolve(label);
+            return Arrays.copyOf(code, length);
+        }
+
+        private void resolve(Label label) throws TooLarge {
+            if (label.offset < 0)
+                throw new InternalCompilerError("Unplaced label");
+            for (int[] use : label.uses) {
+                int offset = label.offset - use[0];
+                if (use.length == 3) {
+                    code[use[1]] = (byte) (offset >> 24);
+                    code[use[1] + 1] = (byte) (offset >> 16);
+                    code[use[1] + 2] = (byte) (offset >> 8);
+                    code[use[1] + 3] = (byte) offset;
+                }
+                else {
+                    if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE)
+                        throw new TooLarge("branch is too far");
+                    code[use[1]] = (byte) (offset >> 8);
+                    code[use[1] + 1] = (byte) offset;
+                }
+            }
+        }
+    }
+}
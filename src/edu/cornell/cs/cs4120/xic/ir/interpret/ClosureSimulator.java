@@ -0,0 +1,445 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cornell.cs.cs4120.util.InternalCompilerError;
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCJump;
+import edu.cornell.cs.cs4120.xic.ir.IRCall;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRESeq;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
+import edu.cornell.cs.cs4120.xic.ir.IRJump;
+import edu.cornell.cs.cs4120.xic.ir.IRLabel;
+import edu.cornell.cs.cs4120.xic.ir.IRMem;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRName;
+import edu.cornell.cs.cs4120.xic.ir.IRReturn;
+import edu.cornell.cs.cs4120.xic.ir.IRSeq;
+import edu.cornell.cs.cs4120.xic.ir.IRStmt;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+
+/**
+ * An IR interpreter that compiles each function body once into a tree of
+ * closures and runs those, rather than walking the IR one node at a time.
+ * Every expression becomes an {@link Expr} that holds the closures of its
+ * operands, and every statement becomes a {@link Stmt} that returns the
+ * index of the statement to run after it, with its jump targets resolved
+ * ahead of time.
+ *
+ * Statements of all functions are laid out one after another in the order
+ * {@link IRSimulator} gives them, so falling off the end of a function and
+ * jumping between functions behave as they do there. Temps, the heap and
+ * library functions are shared with {@link IRSimulator}.
+ *
+ * The simulator's debug output is not produced, and a statement that jumps
+ * or returns must not appear inside an ESEQ. With a {@link Collector}
+ * enabled, values computed partway through an expression are not roots, so
+ * a CALL must not be nested inside an expression whose other operands point
+ * into the heap. Lowered IR satisfies both. With a {@link Profiler}
+ * enabled, code runs in {@link IRSimulator} instead.
+ */
+public class ClosureSimulator extends IRSimulator {
+    /** Code of an expression */
+    protected interface Expr {
+        long eval(ExecutionFrame frame);
+    }
+
+    /** Code of a statement; returns the next statement to run, or -1 */
+    protected interface Stmt {
+        int exec(ExecutionFrame frame);
+    }
+
+    private static final int RETURN = -1;
+
+    /** the statements of all functions, in order */
+    private Stmt[] code;
+
+    /** the function each statement is in */
+    private int[] funcOf;
+
+    /** the first statement of each function */
+    private int[] entries;
+
+    /** the statement at each label or function instruction, or -1 */
+    private int[] insnToStmt;
+
+    /**
+     * Construct a closure-compiling IR interpreter with a default heap size
+     * @param compUnit the compilation unit to be interpreted
+     */
+    public ClosureSimulator(IRCompUnit compUnit) {
+        this(compUnit, DEFAULT_HEAP_SIZE);
+    }
+
+    /**
+     * Construct a closure-compiling IR interpreter
+     * @param compUnit the compilation unit to be interpreted
+     * @param heapSize the heap size
+     */
+    public ClosureSimulator(IRCompUnit compUnit, int heapSize) {
+        super(compUnit, heapSize);
+    }
+
+    /**
+     * Construct a closure-compiling IR interpreter that reads from {@code in}
+     * and writes to {@code out}
+     * @param compUnit the compilation unit to be interpreted
+     * @param heapSize the heap size, in words
+     * @param in the program's input
+     * @param out the program's output
+     */
+    public ClosureSimulator(IRCompUnit compUnit, int heapSize, InputStream in,
+                            PrintStream out) {
+        super(compUnit, heapSize, in, out);
+    }
+
+    @Override
+    protected void execute(ExecutionFrame frame) {
+        // Only the simulator counts what it executes.
+        if (profiler != null) {
+            super.execute(frame);
+            return;
+        }
+
+        // IRSimulator's constructor runs ctors before ours can compile, so
+        // compile on first use.
+        if (code == null) new Compiler().compile();
+
+        final Stmt[] code = this.code;
+        final int[] funcOf = this.funcOf;
+        int pc = entries[frame.func];
+        while (true) {
+            if (pc >= code.length)
+                throw new Trap("No next instruction.  Forgot RETURN?");
+            if (funcOf[pc] != frame.func) frame.enter(funcOf[pc]);
+            pc = code[pc].exec(frame);
+            if (pc == RETURN) return;
+        }
+    }
+
+    /**
+     * The statement to run after jumping to instruction {@code target}, or -1
+     * if execution should stop, as it does in {@link IRSimulator}.
+     */
+    private int jumpTarget(long target) {
+        if (target < 0 || target >= insnToStmt.length) return RETURN;
+        int pc = insnToStmt[(int) target];
+        if (pc < 0)
+            throw new InternalCompilerError("Jump into the middle of instruction "
+                    + program.insns[(int) target].label() + "!");
+        return pc;
+    }
+
+    private long callTarget(IRCall call, long target, long[] args) {
+        if (target >= 0 && target < program.size()) {
+            if (program.ops[(int) target] == LinkedProgram.FUNC)
+                return call(program.funcOf[(int) target], args);
+            throw new InternalCompilerError("Call to a non-function instruction!");
+        }
+        throw new InternalCompilerError("Invalid function call '" + call
+                + "' (target '" + target + "' is unknown)!");
+    }
+
+    /** Compiles the whole compilation unit into closures */
+    private class Compiler {
+        private final List<Stmt> stmts = new ArrayList<>();
+        private final List<Integer> stmtFuncs = new ArrayList<>();
+        private final Map<String, Integer> labels = new HashMap<>();
+
+        /** jumps, which are compiled once every label has a statement */
+        private final List<Runnable> fixups = new ArrayList<>();
+
+        private int func;
+
+        void compile() {
+            int functions = program.functions();
+            int[] entries = new int[functions];
+            for (func = 0; func < functions; func++) {
+                IRFuncDecl decl =
+                        (IRFuncDecl) program.insns[program.entries.get(func)];
+                entries[func] = stmts.size();
+                compileStmt(decl.body());
+            }
+
+            int[] insnToStmt = new int[program.size()];
+            Arrays.fill(insnToStmt, -1);
+            for (int f = 0; f < functions; f++)
+                insnToStmt[program.entries.get(f)] = entries[f];
+            for (Map.Entry<String, Integer> label : labels.entrySet())
+                insnToStmt[(int) (long) nameToIndex.get(label.getKey())] =
+                        label.getValue();
+
+            int[] funcOf = new int[stmts.size()];
+            for (int i = 0; i < funcOf.length; i++)
+                funcOf[i] = stmtFuncs.get(i);
+
+            ClosureSimulator.this.entries = entries;
+            ClosureSimulator.this.insnToStmt = insnToStmt;
+            ClosureSimulator.this.funcOf = funcOf;
+            fixups.forEach(Runnable::run);
+            ClosureSimulator.this.code = stmts.toArray(new Stmt[stmts.size()]);
+        }
+
+        private int emit(Stmt stmt) {
+            stmts.add(stmt);
+            stmtFuncs.add(func);
+            return stmts.size() - 1;
+        }
+
+        private void compileStmt(IRStmt stmt) {
+            if (stmt instanceof IRSeq) {
+                for (IRStmt s : ((IRSeq) stmt).stmts())
+                    compileStmt(s);
+            }
+            else if (stmt instanceof IRLabel)
+                labels.put(((IRLabel) stmt).name(), stmts.size());
+            else if (stmt instanceof IRJump)
+                compileJump((IRJump) stmt);
+            else if (stmt instanceof IRCJump)
+                compileCJump((IRCJump) stmt);
+            else if (stmt instanceof IRReturn)
+                emit(frame -> RETURN);
+            else {
+                int next = stmts.size() + 1;
+                Effect effect = compileEffect(stmt);
+                emit(frame -> {
+                    effect.run(frame);
+                    return next;
+                });
+            }
+        }
+
+        private void compileJump(IRJump jump) {
+            IRExpr target = jump.target();
+            if (target instanceof IRName) {
+                String name = ((IRName) target).name();
+                if (nameToIndex.containsKey(name)
+                        && !libraryFunctions.contains(name)) {
+                    int pc = emit(null);
+                    fixups.add(() -> {
+                        int to = jumpTarget(nameToIndex.get(name));
+                        stmts.set(pc, frame -> to);
+                    });
+                    return;
+                }
+            }
+            Expr e = compileExpr(target);
+            emit(frame -> jumpTarget(e.eval(frame)));
+        }
+
+        private void compileCJump(IRCJump cjump) {
+            Expr cond = compileExpr(cjump.expr());
+            int pc = emit(null);
+            fixups.add(() -> {
+                int t = cjumpTarget(cjump.trueLabel(), pc);
+                int f = cjumpTarget(cjump.falseLabel(), pc);
+                if (t >= 0 && f >= 0) {
+                    stmts.set(pc, frame -> {
+                        long top = cond.eval(frame);
+                        if (top == 0) return f;
+                        if (top == 1) return t;
+                        throw invalidCJump(top);
+                    });
+                    return;
+                }
+                stmts.set(pc, frame -> {
+                    long top = cond.eval(frame);
+                    if (top != 0 && top != 1) throw invalidCJump(top);
+                    int to = top == 1 ? t : f;
+                    if (to < 0)
+                        throw new Trap("Could not find label '"
+                                + (top == 1 ? cjump.trueLabel() : cjump.falseLabel())
+                                + "'!");
+                    return to;
+                });
+            });
+        }
+
+        /** The statement after a CJUMP at {@code pc} to {@code label}, or -1 */
+        private int cjumpTarget(String label, int pc) {
+            if (label == null) return pc + 1;
+            Long index = nameToIndex.get(label);
+            return index == null ? -1 : jumpTarget(index);
+        }
+
+        /** A statement that neither jumps nor returns */
+        private Effect compileEffect(IRStmt stmt) {
+            if (stmt instanceof IRSeq) {
+                Effect[] body = ((IRSeq) stmt).stmts().stream()
+                        .map(this::compileEffect)
+                        .toArray(Effect[]::new);
+                return frame -> {
+                    for (Effect e : body) e.run(frame);
+                };
+            }
+            if (stmt instanceof IRExp) {
+                Expr e = compileExpr(((IRExp) stmt).expr());
+                return frame -> e.eval(frame);
+            }
+            if (stmt instanceof IRMove)
+                return compileMove((IRMove) stmt);
+            throw new InternalCompilerError("The closure simulator cannot run "
+                    + stmt.label() + " inside an expression");
+        }
+
+        private Effect compileMove(IRMove move) {
+            IRExpr target = move.target();
+            if (target instanceof IRTemp) {
+                String name = ((IRTemp) target).name();
+                Expr src = compileExpr(move.expr());
+                if (LinkedProgram.isGlobalRegister(name)) {
+                    int slot = program.findGlobalSlot(name);
+                    return frame -> globals[slot] = src.eval(frame);
+                }
+                int slot = program.findLocalSlot(func, name);
+                return frame -> frame.temps[slot] = src.eval(frame);
+            }
+            if (target instanceof IRMem) {
+                Expr addr = compileExpr(((IRMem) target).expr());
+                Expr src = compileExpr(move.expr());
+                return frame -> {
+                    long word = Heap.index(addr.eval(frame));
+                    mem.set(word, src.eval(frame));
+                };
+            }
+            return frame -> {
+                throw new InternalCompilerError("Invalid MOVE!");
+            };
+        }
+
+        private Expr compileExpr(IRExpr expr) {
+            if (expr instanceof IRConst) {
+                long value = ((IRConst) expr).value();
+                return frame -> value;
+            }
+            if (expr instanceof IRTemp) {
+                String name = ((IRTemp) expr).name();
+                if (LinkedProgram.isGlobalRegister(name)) {
+                    int slot = program.findGlobalSlot(name);
+                    return frame -> globals[slot];
+                }
+                int slot = program.findLocalSlot(func, name);
+                return frame -> frame.temps[slot];
+            }
+            if (expr instanceof IRBinOp)
+                return compileBinOp((IRBinOp) expr);
+            if (expr instanceof IRMem) {
+                Expr addr = compileExpr(((IRMem) expr).expr());
+                return frame -> mem.load(addr.eval(frame));
+            }
+            if (expr instanceof IRCall)
+                return compileCall((IRCall) expr);
+            if (expr instanceof IRName) {
+                String name = ((IRName) expr).name();
+                if (libraryFunctions.contains(name))
+                    return frame -> -1;
+                if (nameToIndex.containsKey(name)) {
+                    long index = nameToIndex.get(name);
+                    return frame -> index;
+                }
+                return frame -> {
+                    throw new InternalCompilerError("Invalid destination in NAME: '"
+                            + name + "'");
+                };
+            }
+            if (expr instanceof IRESeq) {
+                Effect stmt = compileEffect(((IRESeq) expr).stmt());
+                Expr e = compileExpr(((IRESeq) expr).expr());
+                return frame -> {
+                    stmt.run(frame);
+                    return e.eval(frame);
+                };
+            }
+            throw new InternalCompilerError("Unknown expression " + expr.label());
+        }
+
+        private Expr compileBinOp(IRBinOp binop) {
+            Expr l = compileExpr(binop.left());
+            IRExpr right = binop.right();
+            if (right instanceof IRConst) {
+                // The most common shapes get closures of their own.
+                long c = ((IRConst) right).value();
+                switch (binop.opType()) {
+                case ADD: return frame -> l.eval(frame) + c;
+                case SUB: return frame -> l.eval(frame) - c;
+                case MUL: return frame -> l.eval(frame) * c;
+                default:  break;
+                }
+            }
+            Expr r = compileExpr(right);
+            switch (binop.opType()) {
+            case ADD: return frame -> l.eval(frame) + r.eval(frame);
+            case SUB: return frame -> l.eval(frame) - r.eval(frame);
+            case MUL: return frame -> l.eval(frame) * r.eval(frame);
+            case AND: return frame -> l.eval(frame) & r.eval(frame);
+            case OR:  return frame -> l.eval(frame) | r.eval(frame);
+            case XOR: return frame -> l.eval(frame) ^ r.eval(frame);
+            case EQ:  return frame -> l.eval(frame) == r.eval(frame) ? 1 : 0;
+            case NEQ: return frame -> l.eval(frame) != r.eval(frame) ? 1 : 0;
+            case LT:  return frame -> l.eval(frame) < r.eval(frame) ? 1 : 0;
+            case GT:  return frame -> l.eval(frame) > r.eval(frame) ? 1 : 0;
+            case LEQ: return frame -> l.eval(frame) <= r.eval(frame) ? 1 : 0;
+            case GEQ: return frame -> l.eval(frame) >= r.eval(frame) ? 1 : 0;
+            default:
+                IRBinOp.OpType op = binop.opType();
+                return frame -> {
+                    long lv = l.eval(frame);
+                    return binop(op, lv, r.eval(frame));
+                };
+            }
+        }
+
+        private Expr compileCall(IRCall call) {
+            IRExpr target = call.target();
+            Expr t = compileExpr(target);
+            Expr[] args = call.args().stream()
+                    .map(this::compileExpr)
+                    .toArray(Expr[]::new);
+            if (!(target instanceof IRName))
+                return frame -> {
+                    long index = t.eval(frame);
+                    return callTarget(call, index, evalArgs(args, frame));
+                };
+
+            String name = ((IRName) target).name();
+            int library = program.library(name);
+            if (library >= 0)
+                return frame -> libraryCall(library, evalArgs(args, frame));
+            int f = program.function(name);
+            if (f >= 0)
+                return frame -> call(f, evalArgs(args, frame));
+            // Labels and unknown names fail just as they do in IRSimulator.
+            return frame -> {
+                t.eval(frame);
+                return call(name, evalArgs(args, frame));
+            };
+        }
+    }
+
+    /** Code of a statement that neither jumps nor returns */
+    private interface Effect {
+        void run(ExecutionFrame frame);
+    }
+
+    private static InternalCompilerError invalidCJump(long top) {
+        return new InternalCompilerError("Invalid value in CJUMP - expected 0/1, got "
+                + top);
+    }
+
+    private static long[] evalArgs(Expr[] args, ExecutionFrame frame) {
+        long[] values = new long[args.length];
+        for (int i = 0; i < args.length; i++)
+            values[i] = args[i].eval(frame);
+        return values;
+    }
+}
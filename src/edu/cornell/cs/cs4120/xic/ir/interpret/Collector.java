@@ -0,0 +1,224 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator.Trap;
+
+/**
+ * A mark-sweep garbage collector for the simulator's heap, which takes over
+ * allocation from {@link IRSimulator#malloc} once enabled.
+ *
+ * IR values carry no types, so the collector is conservative: any word in a
+ * root or a reachable block that points into or just past the end of a block
+ * keeps that block alive. The roots are the global registers, the temps of
+ * every active frame, the simulator's expression stack, and whatever was
+ * allocated before the collector was enabled.
+ *
+ * Freed memory is reused first fit. A collection runs when as much has been
+ * allocated since the last one as was live after it, or when an allocation
+ * does not otherwise fit.
+ */
+public final class Collector {
+    /** the least allocation between collections, in bytes */
+    private static final long MIN_TRIGGER = 1 << 20;
+
+    private final IRSimulator sim;
+    private final Heap heap;
+
+    /** memory allocated before the collector was enabled, which is a root */
+    private final long staticTop;
+
+    /** the end of the highest block */
+    private long top;
+
+    /** allocated blocks, start to size in bytes */
+    private final TreeMap<Long, Long> blocks = new TreeMap<>();
+
+    /** free memory below {@code top}, start to size in bytes */
+    private final TreeMap<Long, Long> free = new TreeMap<>();
+
+    private long sinceCollection;
+    private long trigger = MIN_TRIGGER;
+
+    /* Blocks as of the collection in progress */
+    private long[] starts;
+    private long[] ends;
+    private boolean[] marked;
+    private int[] worklist;
+    private int pending;
+
+    /* Statistics */
+    private int collections;
+    private long totalPause;
+    private long maxPause;
+    private long allocated;
+    private long freed;
+    private long live;
+    private long peakLive;
+
+    Collector(IRSimulator sim, Heap heap, long heapPtr) {
+        this.sim = sim;
+        this.heap = heap;
+        staticTop = heapPtr;
+        top = heapPtr;
+    }
+
+    /** Allocate {@code size} bytes, which is a multiple of the word size */
+    long allocate(long size) {
+        // Every block has a distinct start, so even empty ones take a word.
+        size = Math.max(size, Configuration.WORD_SIZE);
+        if (sinceCollection >= trigger) collect();
+        long addr = fit(size);
+        if (addr < 0) {
+            collect();
+            addr = fit(size);
+            if (addr < 0) throw new Trap("Out of memory!");
+        }
+        blocks.put(addr, size);
+        sinceCollection += size;
+        allocated += size;
+        live += size;
+        peakLive = Math.max(peakLive, live);
+        return addr;
+    }
+
+    private long fit(long size) {
+        Iterator<Map.Entry<Long, Long>> it = free.entrySet().iterator();
+        while (it.hasNext()) {
+            // Removing an entry may hand its node to the next one, so read
+            // it first.
+            Map.Entry<Long, Long> gap = it.next();
+            long addr = gap.getKey(), gapSize = gap.getValue();
+            if (gapSize < size) continue;
+            it.remove();
+            if (gapSize > size) free.put(addr + size, gapSize - size);
+            return addr;
+        }
+        if (size > (long) heap.size() * Configuration.WORD_SIZE - top) return -1;
+        long addr = top;
+        top += size;
+        return addr;
+    }
+
+    /** Reclaim every block that is not reachable from the roots */
+    public void collect() {
+        long start = System.nanoTime();
+
+        int n = blocks.size();
+        starts = new long[n];
+        ends = new long[n];
+        marked = new boolean[n];
+        worklist = new int[n];
+        pending = 0;
+        int i = 0;
+        for (Map.Entry<Long, Long> block : blocks.entrySet()) {
+            starts[i] = block.getKey();
+            ends[i] = block.getKey() + block.getValue();
+            i++;
+        }
+
+        sim.roots(this);
+        for (long addr = 0; addr < staticTop; addr += Configuration.WORD_SIZE)
+            mark(heap.load(addr));
+        while (pending > 0) {
+            int b = worklist[--pending];
+            for (long addr = starts[b]; addr < ends[b]; addr += Configuration.WORD_SIZE)
+                mark(heap.load(addr));
+        }
+
+        // Sweep, and rebuild the free list from the gaps between live blocks.
+        free.clear();
+        live = 0;
+        long end = staticTop;
+        for (i = 0; i < n; i++) {
+            if (!marked[i]) {
+                blocks.remove(starts[i]);
+                freed += ends[i] - starts[i];
+                continue;
+            }
+            if (starts[i] > end) free.put(end, starts[i] - end);
+            live += ends[i] - starts[i];
+            end = ends[i];
+        }
+        top = end;
+        starts = ends = null;
+        marked = null;
+        worklist = null;
+
+        sinceCollection = 0;
+        trigger = Math.max(MIN_TRIGGER, live);
+        long pause = System.nanoTime() - start;
+        collections++;
+        totalPause += pause;
+        maxPause = Math.max(maxPause, pause);
+    }
+
+    /** Treat {@code value} as a possible pointer */
+    void mark(long value) {
+        int i = Arrays.binarySearch(starts, value);
+        if (i < 0) i = -i - 2;
+        if (i >= 0 && value < ends[i]) markBlock(i);
+        // A pointer just past the end of a block, e.g. to an empty array.
+        int before = i >= 0 && starts[i] == value ? i - 1 : i;
+        if (before >= 0 && ends[before] == value) markBlock(before);
+    }
+
+    private void markBlock(int i) {
+        if (marked[i]) return;
+        marked[i] = true;
+        worklist[pending++] = i;
+    }
+
+    /** The number of collections so far */
+    public int collections() {
+        return collections;
+    }
+
+    /** The total time spent collecting, in nanoseconds */
+    public long totalPauseNanos() {
+        return totalPause;
+    }
+
+    /** The longest collection, in nanoseconds */
+    public long maxPauseNanos() {
+        return maxPause;
+    }
+
+    /** The number of bytes allocated since the collector was enabled */
+    public long allocatedBytes() {
+        return allocated;
+    }
+
+    /** The number of bytes collections have reclaimed */
+    public long freedBytes() {
+        return freed;
+    }
+
+    /** The number of bytes in blocks not yet reclaimed */
+    public long liveBytes() {
+        return live;
+    }
+
+    /** The most bytes that have been in blocks not yet reclaimed at once */
+    public long peakLiveBytes() {
+        return peakLive;
+    }
+
+    /** The end of the highest block, i.e. how much of the heap is in use */
+    public long topBytes() {
+        return top;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("gc: %d collections, %.3f ms total pause, %.3f ms max pause; "
+                + "%d bytes allocated, %d freed, %d live (peak %d); "
+                + "heap %d of %d bytes in use",
+                collections, totalPause / 1e6, maxPause / 1e6,
+                allocated, freed, live, peakLive,
+                top, (long) heap.size() * Configuration.WORD_SIZE);
+    }
+}
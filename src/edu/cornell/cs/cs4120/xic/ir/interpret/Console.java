@@ -0,0 +1,156 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * The input and output of a simulated program, encoded as UTF-8.
+ *
+ * Output collects in a buffer that is written to the underlying stream in
+ * one piece at the end of each line, before each read, and when
+ * {@link #flush} is called, rather than a character at a time. Input is read
+ * from the underlying stream in blocks.
+ */
+final class Console {
+    private static final int BUFFER_SIZE = 8192;
+    private static final char[] LINE_SEPARATOR =
+        System.lineSeparator().toCharArray();
+
+    private final InputStream in;
+    private final OutputStream out;
+
+    private final byte[] inBuf = new byte[BUFFER_SIZE];
+    private int inPos;
+    private int inLimit;
+    /**
+     * Whether the last line ended in {@code \r}, so that a {@code \n} right
+     * after it belongs to that line. Looking ahead for it would block on
+     * interactive input until the next line is typed.
+     */
+    private boolean skipLF;
+
+    private byte[] outBuf = new byte[BUFFER_SIZE];
+    private int outPos;
+
+    /** the line being read by {@link #readLine} */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    Console(InputStream in, OutputStream out) {
+        this.in = in;
+        this.out = out;
+    }
+
+    /** Write character {@code c} */
+    void print(char c) {
+        if (outBuf.length - outPos < 3)
+            outBuf = Arrays.copyOf(outBuf, outBuf.length * 2);
+        if (c < 0x80)
+            outBuf[outPos++] = (byte) c;
+        else if (c < 0x800) {
+            outBuf[outPos++] = (byte) (0xc0 | c >>> 6);
+            outBuf[outPos++] = (byte) (0x80 | c & 0x3f);
+        }
+        else if (Character.isSurrogate(c))
+            // A lone half of a surrogate pair cannot be encoded.
+            outBuf[outPos++] = '?';
+        else {
+            outBuf[outPos++] = (byte) (0xe0 | c >>> 12);
+            outBuf[outPos++] = (byte) (0x80 | c >>> 6 & 0x3f);
+            outBuf[outPos++] = (byte) (0x80 | c & 0x3f);
+        }
+    }
+
+    /** End the current line, and write it out */
+    void println() throws IOException {
+        for (char c : LINE_SEPARATOR)
+            print(c);
+        flush();
+    }
+
+    /** Write out everything printed so far */
+    void flush() throws IOException {
+        if (outPos == 0) return;
+        out.write(outBuf, 0, outPos);
+        out.flush();
+        outPos = 0;
+        // Don't hold on to the buffer a single huge line grew.
+        if (outBuf.length > BUFFER_SIZE) outBuf = new byte[BUFFER_SIZE];
+    }
+
+    /** Refill the input buffer; false at the end of the input */
+    private boolean fill() throws IOException {
+        // A prompt should appear before the program waits for its answer.
+        flush();
+        int n = in.read(inBuf);
+        if (n <= 0) return false;
+        inPos = 0;
+        inLimit = n;
+        return true;
+    }
+
+    /** The next byte of input, or -1 at the end of the input */
+    private int readByte() throws IOException {
+        if (inPos == inLimit && !fill()) return -1;
+        if (skipLF) {
+            skipLF = false;
+            if (inBuf[inPos] == '\n' && ++inPos == inLimit && !fill()) return -1;
+        }
+        return inBuf[inPos++] & 0xff;
+    }
+
+    /**
+     * The next line of input, without its line terminator, which is
+     * {@code \n}, {@code \r\n} or {@code \r}; null at the end of the input
+     */
+    String readLine() throws IOException {
+        line.reset();
+        while (true) {
+            if (inPos == inLimit && !fill())
+                return line.size() == 0 ? null : line.toString("UTF-8");
+            if (skipLF) {
+                skipLF = false;
+                if (inBuf[inPos] == '\n') {
+                    inPos++;
+                    continue;
+                }
+            }
+            int start = inPos;
+            while (inPos < inLimit && inBuf[inPos] != '\n' && inBuf[inPos] != '\r')
+                inPos++;
+            line.write(inBuf, start, inPos - start);
+            if (inPos == inLimit) continue;
+            if (inBuf[inPos++] == '\r') {
+                if (inPos == inLimit) skipLF = true;
+                else if (inBuf[inPos] == '\n') inPos++;
+            }
+            return line.toString("UTF-8");
+        }
+    }
+
+    /** The next character of input, or -1 at the end of the input */
+    int read() throws IOException {
+        int b = readByte();
+        if (b < 0x80) return b;
+        int extra = b >= 0xf0 ? 3 : b >= 0xe0 ? 2 : b >= 0xc0 ? 1 : 0;
+        if (extra == 0) return 0xfffd;
+        int c = b & (0x3f >>> extra);
+        for (int i = 0; i < extra; i++) {
+            if (inPos == inLimit && !fill()) return 0xfffd;
+            if ((inBuf[inPos] & 0xc0) != 0x80) return 0xfffd;
+            c = c << 6 | inBuf[inPos++] & 0x3f;
+        }
+        return c;
+    }
+
+    /** Whether input can be read without waiting for more */
+    boolean ready() throws IOException {
+        if (skipLF && inPos < inLimit && inBuf[inPos] == '\n') {
+            skipLF = false;
+            inPos++;
+        }
+        return inPos < inLimit || in.available() > 0;
+    }
+}
@@ -0,0 +1,90 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.util.Random;
+
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator.Trap;
+
+/**
+ * The simulator's heap: a fixed number of words, stored in pages that are
+ * allocated, and filled with garbage, only when one of their words is first
+ * touched. A large heap therefore costs nothing until a program uses it.
+ * Accesses outside the heap trap.
+ */
+public final class Heap {
+    private static final int PAGE_BITS = 12;
+    private static final int PAGE_WORDS = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_WORDS - 1;
+
+    /** the pages touched so far; null until then */
+    private final long[][] pages;
+
+    /** the size of the heap, in words */
+    private final int size;
+
+    /** garbage for new pages */
+    private final Random r;
+
+    /** the number of pages touched so far */
+    private int touched;
+
+    Heap(int size, Random r) {
+        this.size = size;
+        this.r = r;
+        pages = new long[(size + PAGE_WORDS - 1) >>> PAGE_BITS][];
+    }
+
+    /** The size of the heap, in words */
+    public int size() {
+        return size;
+    }
+
+    /** The number of words in pages that have been touched */
+    public long resident() {
+        return (long) touched * PAGE_WORDS;
+    }
+
+    /** The word at byte address {@code addr} */
+    public long load(long addr) {
+        return get(index(addr));
+    }
+
+    /** Set the word at byte address {@code addr} */
+    public void store(long addr, long value) {
+        set(index(addr), value);
+    }
+
+    /** The word at word index {@code index} */
+    public long get(long index) {
+        return page(index)[(int) index & PAGE_MASK];
+    }
+
+    /** Set the word at word index {@code index} */
+    public void set(long index, long value) {
+        page(index)[(int) index & PAGE_MASK] = value;
+    }
+
+    /** The word index of byte address {@code addr} */
+    public static long index(long addr) {
+        if (addr % Configuration.WORD_SIZE != 0)
+            throw new Trap("Unaligned memory access: " + addr
+                    + " (word size=" + Configuration.WORD_SIZE + ")");
+        return addr / Configuration.WORD_SIZE;
+    }
+
+    private long[] page(long index) {
+        if (index < 0 || index >= size)
+            throw new Trap("Memory access outside the heap: "
+                    + index * Configuration.WORD_SIZE);
+        long[] page = pages[(int) (index >>> PAGE_BITS)];
+        return page != null ? page : touch((int) (index >>> PAGE_BITS));
+    }
+
+    private long[] touch(int p) {
+        long[] page = new long[PAGE_WORDS];
+        for (int i = 0; i < PAGE_WORDS; i++)
+            page[i] = r.nextLong();
+        pages[p] = page;
+        touched++;
+        return page;
+    }
+}
@@ -1,32 +1,23 @@
 package edu.cornell.cs.cs4120.xic.ir.interpret;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
+import java.io.PrintStream;
 import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
-import java.util.Stack;
+import java.util.SplittableRandom;
 
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
 import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
 import edu.cornell.cs.cs4120.xic.ir.IRCJump;
-import edu.cornell.cs.cs4120.xic.ir.IRCall;
 import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
-import edu.cornell.cs.cs4120.xic.ir.IRConst;
-import edu.cornell.cs.cs4120.xic.ir.IRExp;
-import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
-import edu.cornell.cs.cs4120.xic.ir.IRJump;
-import edu.cornell.cs.cs4120.xic.ir.IRMem;
-import edu.cornell.cs.cs4120.xic.ir.IRMove;
-import edu.cornell.cs.cs4120.xic.ir.IRName;
 import edu.cornell.cs.cs4120.xic.ir.IRNode;
-import edu.cornell.cs.cs4120.xic.ir.IRReturn;
-import edu.cornell.cs.cs4120.xic.ir.IRTemp;
 import edu.cornell.cs.cs4120.xic.ir.visit.InsnMapsBuilder;
 
 /**
@@ -47,29 +38,69 @@ public class IRSimulator {
     protected Map<IRNode, Long> insnToIndex;
 
     /** map from labeled name to address */
-    private Map<String, Long> nameToIndex;
+    protected Map<String, Long> nameToIndex;
+
+    /** the instructions, decoded into arrays indexed by address */
+    protected LinkedProgram program;
 
     /** a random number generator for initializing garbage */
     protected Random r;
 
-    /** global registers (register name -> value) */
-    private Map<String, Long> regs;
+    /** global registers, indexed by slot */
+    protected long[] globals;
+
+    /** slots of the registers functions return results through */
+    private int ret0, ret1;
+
+    /** the garbage temps start out as, drawn afresh for every frame */
+    private SplittableRandom garbage;
+
+    /** the number of temp slots of each function */
+    private int[] frameSizes;
 
     /** heap */
-    private long mem[];
+    protected Heap mem;
 
     /** heap pointer to lowest unallocated region */
     private long heapPtr;
 
+    /** the garbage collector, or null if memory is never reclaimed */
+    protected Collector collector;
+
+    /** the profiler, or null if execution is not profiled */
+    protected Profiler profiler;
+
+    /** the frames of the calls in progress, innermost last */
+    private ExecutionFrame[] frames = new ExecutionFrame[16];
+    private int depth;
+
     private ExprStack exprStack;
-    private BufferedReader inReader;
 
-    private Set<String> libraryFunctions;
+    /** where the program reads its input and writes its output */
+    private Console console;
+    protected PrintStream out;
+
+    protected Set<String> libraryFunctions;
     private List<String> ctors;
 
-    protected static int debugLevel = 0;
+    protected int debugLevel = 0;
+
+    /** the default heap size, in words; pages are only allocated when used */
+    public static final int DEFAULT_HEAP_SIZE = 1 << 23;
+
+    private static final IRBinOp.OpType[] OP_TYPES = IRBinOp.OpType.values();
 
-    public static final int DEFAULT_HEAP_SIZE = 20480;
+    /* Library functions, numbered in the order libraryFunctions lists them */
+    protected static final int PRINT = 0;
+    protected static final int PRINTLN = 1;
+    protected static final int READLN = 2;
+    protected static final int GETCHAR = 3;
+    protected static final int EOF = 4;
+    protected static final int PARSE_INT = 5;
+    protected static final int UNPARSE_INT = 6;
+    protected static final int ALLOC = 7;
+    protected static final int OUT_OF_BOUNDS = 8;
+    protected static final int ASSERT = 9;
 
     /**
      * Construct an IR interpreter with a default heap size
@@ -82,24 +113,35 @@ public class IRSimulator {
     /**
      * Construct an IR interpreter
      * @param compUnit the compilation unit to be interpreted
-     * @param heapSize the heap size
+     * @param heapSize the heap size, in words
      */
     public IRSimulator(IRCompUnit compUnit, int heapSize) {
+        this(compUnit, heapSize, System.in, System.out);
+    }
+
+    /**
+     * Construct an IR interpreter that reads from {@code in} and writes to
+     * {@code out}. Simulators share no state, so any number of them can run
+     * at once on different threads.
+     * @param compUnit the compilation unit to be interpreted
+     * @param heapSize the heap size, in words
+     * @param in the program's input
+     * @param out the program's output, which debug output also goes to
+     */
+    public IRSimulator(IRCompUnit compUnit, int heapSize, InputStream in,
+                       PrintStream out) {
         this.compUnit = compUnit;
+        this.out = out;
 
         r = new Random();
 
-        regs = new HashMap<>();
-
-        mem = new long[heapSize];
-        // initialize heap to garbage
-        for (int i = 0; i < heapSize; i++)
-            mem[i] = r.nextLong();
+        // The heap fills itself with garbage as it is used.
+        mem = new Heap(heapSize, r);
         // initialize heap pointer
         heapPtr = 0;
 
         exprStack = new ExprStack();
-        inReader = new BufferedReader(new InputStreamReader(System.in));
+        console = new Console(in, out);
 
         libraryFunctions = new LinkedHashSet<>();
         // io declarations
@@ -123,46 +165,23 @@ public class IRSimulator {
         insnToIndex = imb.insnToIndex();
         nameToIndex = imb.nameToIndex();
         ctors = imb.ctors();
+        program = new LinkedProgram(indexToInsn, nameToIndex, libraryFunctions);
+
+        // Referencing a temp before having written to it gives garbage.
+        globals = new long[program.globals.size()];
+        for (int i = 0; i < globals.length; i++)
+            globals[i] = r.nextLong();
+        ret0 = program.findGlobalSlot(Configuration.ABSTRACT_RET_PREFIX + 0);
+        ret1 = program.findGlobalSlot(Configuration.ABSTRACT_RET_PREFIX + 1);
+        garbage = new SplittableRandom(r.nextLong());
+        frameSizes = new int[program.functions()];
+        for (int f = 0; f < frameSizes.length; f++)
+            frameSizes[f] = program.locals.get(f).size();
 
         for (int i = 0; i < ctors.size(); ++i)
             call(ctors.get(i), new long[] {});
     }
 
-    /**
-     * Fetch the value at the given register
-     * @param frame the current execution frame
-     * @param tempName name of the register
-     * @return the value at the given register
-     */
-    public long get(ExecutionFrame frame, String tempName) {
-        if (isGlobalRegister(tempName)) {
-            if (!regs.containsKey(tempName)) {
-                /* Referencing a temp before having written to it - initialize
-                   with garbage */
-                regs.put(tempName, r.nextLong());
-            }
-            return regs.get(tempName);
-        }
-        else return frame.get(tempName);
-    }
-
-    /**
-     * Store a value into the given register
-     * @param frame the current execution frame
-     * @param tempName name of the register
-     * @param value value to be stored
-     */
-    public void put(ExecutionFrame frame, String tempName, long value) {
-        if (isGlobalRegister(tempName))
-            regs.put(tempName, value);
-        else frame.put(tempName, value);
-    }
-
-    protected boolean isGlobalRegister(String name) {
-        return name.startsWith(Configuration.ABSTRACT_ARG_PREFIX)
-                || name.startsWith(Configuration.ABSTRACT_RET_PREFIX);
-    }
-
     /**
      * Allocate a specified amount of bytes on the heap
      * @param size the number of bytes to be allocated
@@ -174,11 +193,60 @@ public class IRSimulator {
             throw new Trap("Can only allocate in chunks of "
                     + Configuration.WORD_SIZE + " bytes!");
 
+        if (collector != null) return collector.allocate(size);
+        if (size > (long) mem.size() * Configuration.WORD_SIZE - heapPtr)
+            throw new Trap("Out of memory!");
+
         long retval = heapPtr;
         heapPtr += size;
         return retval;
     }
 
+    /**
+     * Reclaim memory that the program can no longer reach from now on.
+     * Memory allocated so far is never reclaimed.
+     * @return the collector, which keeps statistics
+     */
+    public Collector enableCollector() {
+        if (collector == null) collector = new Collector(this, mem, heapPtr);
+        return collector;
+    }
+
+    /**
+     * Print what this simulator does from now on to its output: 1 for
+     * stores, 2 for every instruction as well.
+     */
+    public void setDebugLevel(int level) {
+        debugLevel = level;
+    }
+
+    /**
+     * Count the nodes executed from now on.
+     * @return the profiler, which reports the counts
+     */
+    public Profiler enableProfiler() {
+        if (profiler == null) profiler = new Profiler(program);
+        return profiler;
+    }
+
+    /**
+     * Mark everything outside the heap that may point into it: the global
+     * registers, the temps of every frame and the expression stack.
+     */
+    protected void roots(Collector collector) {
+        for (long value : globals)
+            collector.mark(value);
+        for (int i = 0; i < depth; i++) {
+            for (long value : frames[i].temps)
+                collector.mark(value);
+            if (frames[i].spilled != null)
+                for (long value : frames[i].spilled.values())
+                    collector.mark(value);
+        }
+        for (int i = 0; i < exprStack.size; i++)
+            collector.mark(exprStack.values[i]);
+    }
+
     /**
      * Read a value at the specified location on the heap
      * @param addr the address to be read
@@ -187,7 +255,7 @@ public class IRSimulator {
     public long read(long addr) {
         if (addr % Configuration.WORD_SIZE != 0)
             throw new Trap("Unaligned memory access!");
-        return mem[(int) (addr / Configuration.WORD_SIZE)];
+        return mem.load(addr);
     }
 
     /**
@@ -198,7 +266,7 @@ public class IRSimulator {
     public void store(long addr, long value) {
         if (addr % Configuration.WORD_SIZE != 0)
             throw new Trap("Unaligned memory access!");
-        mem[(int) (addr / Configuration.WORD_SIZE)] = value;
+        mem.store(addr, value);
     }
 
     /**
@@ -214,53 +282,89 @@ public class IRSimulator {
      */
     public long call(String name, long... args) {
         // Catch standard library calls.
-        if (libraryFunctions.contains(name)) return libraryCall(name, args);
+        int library = program.library(name);
+        if (library >= 0) {
+            long result = callLibrary(library, args);
+            if (depth == 0) flushOutput();
+            return result;
+        }
 
-        IRFuncDecl fDecl = compUnit.getFunction(name);
-        if (fDecl == null)
+        int func = program.function(name);
+        if (func < 0)
             throw new InternalCompilerError("Tried to call an unknown function: '"
                     + name + "'");
+        return call(func, args);
+    }
 
+    /**
+     * Simulate a call to function number {@code func} of the linked program.
+     */
+    protected long call(int func, long[] args) {
         // Create a new stack frame.
-        ExecutionFrame frame = new ExecutionFrame(fDecl);
+        ExecutionFrame frame = new ExecutionFrame(func);
 
-        // Pass the remaining arguments into registers.
-        for (int i = 0; i < args.length; ++i)
-            put(frame, Configuration.ABSTRACT_ARG_PREFIX + i, args[i]);
+        // Pass the remaining arguments into registers. Arguments the program
+        // never reads have no register.
+        for (int i = 0; i < args.length; ++i) {
+            int slot = program.argSlot(i);
+            if (slot >= 0) globals[slot] = args[i];
+        }
 
         // Simulate!
-        while (frame.advance());
+        if (depth == frames.length) frames = Arrays.copyOf(frames, depth * 2);
+        frames[depth++] = frame;
+        Profiler profiler = this.profiler;
+        if (profiler != null) profiler.enter(func);
+        try {
+            execute(frame);
+        }
+        finally {
+            frames[--depth] = null;
+            if (profiler != null) profiler.leave();
+            // Output is buffered until the end of each line, or the program.
+            if (depth == 0) flushOutput();
+        }
 
-        return get(frame, Configuration.ABSTRACT_RET_PREFIX + 0);
+        return globals[ret0];
+    }
+
+    /**
+     * Simulate a call to library function number {@code library}, counting
+     * it if execution is being profiled
+     */
+    protected long callLibrary(int library, long[] args) {
+        if (profiler != null) profiler.library(library);
+        return libraryCall(library, args);
     }
 
     /**
      * Simulate a library function call
-     * @param name name of the function call
+     * @param library number of the library function, e.g. {@link #PRINT}
      * @param args arguments to the function call, which may include
      *          the pointer to the location of multiple results
      * @return the address of the result
      */
-    protected long libraryCall(String name, long[] args) {
+    protected long libraryCall(int library, long[] args) {
         final int ws = Configuration.WORD_SIZE;
         try {
-            switch (name) {
+            switch (library) {
             // io declarations
-            case "_Iprint_pai": {
+            case PRINT: {
                 long ptr = args[0], size = read(ptr - ws);
                 for (long i = 0; i < size; ++i)
-                    System.out.print((char) read(ptr + i * ws));
+                    console.print((char) read(ptr + i * ws));
                 return 0;
             }
-            case "_Iprintln_pai": {
+            case PRINTLN: {
                 long ptr = args[0], size = read(ptr - ws);
                 for (long i = 0; i < size; ++i)
-                    System.out.print((char) read(ptr + i * ws));
-                System.out.println();
+                    console.print((char) read(ptr + i * ws));
+                console.println();
                 return 0;
             }
-            case "_Ireadln_ai": {
-                String line = inReader.readLine();
+            case READLN: {
+                String line = console.readLine();
+                if (line == null) line = "";
                 int len = line.length();
                 long ptr = malloc((len + 1) * ws);
                 store(ptr, len);
@@ -268,14 +372,14 @@ public class IRSimulator {
                     store(ptr + (i + 1) * ws, line.charAt(i));
                 return ptr + ws;
             }
-            case "_Igetchar_i": {
-                return inReader.read();
+            case GETCHAR: {
+                return console.read();
             }
-            case "_Ieof_b": {
-                return inReader.ready() ? 0 : 1;
+            case EOF: {
+                return console.ready() ? 0 : 1;
             }
             // conv declarations
-            case "_IunparseInt_aii": {
+            case UNPARSE_INT: {
                 String line = String.valueOf(args[0]);
                 int len = line.length();
                 long ptr = malloc((len + 1) * ws);
@@ -284,7 +388,7 @@ public class IRSimulator {
                     store(ptr + (i + 1) * ws, line.charAt(i));
                 return ptr + ws;
             }
-            case "_IparseInt_t2ibai": {
+            case PARSE_INT: {
                 StringBuffer buf = new StringBuffer();
                 long ptr = args[0], size = read(ptr - ws);
                 for (int i = 0; i < size; ++i)
@@ -296,25 +400,25 @@ public class IRSimulator {
                 catch (NumberFormatException e) {
                     success = 0;
                 }
-                put(null, Configuration.ABSTRACT_RET_PREFIX + 0, result);
-                put(null, Configuration.ABSTRACT_RET_PREFIX + 1, success);
+                globals[ret0] = result;
+                globals[ret1] = success;
                 return result;
             }
             // special declarations
-            case "_I_alloc_i": {
+            case ALLOC: {
                 return malloc(args[0]);
             }
-            case "_I_outOfBounds_p": {
+            case OUT_OF_BOUNDS: {
                 throw new Trap("Out of bounds!");
             }
             // other declarations
-            case "_Iassert_pb": {
+            case ASSERT: {
                 if (args[0] != 1) throw new Trap("Assertion error!");
                 return 0;
             }
             default:
                 throw new InternalCompilerError("Unsupported library function: "
-                        + name);
+                        + program.libraryFunctions.get(library));
             }
         }
         catch (IOException e) {
@@ -322,231 +426,267 @@ public class IRSimulator {
         }
     }
 
-    protected void leave(ExecutionFrame frame) {
-        if (frame.ip instanceof IRConst)
-            exprStack.pushValue(((IRConst) frame.ip).value());
-        else if (frame.ip instanceof IRTemp) {
-            String tempName = ((IRTemp) frame.ip).name();
-            exprStack.pushTemp(get(frame, tempName), tempName);
+    /** Write out whatever the program has printed but not yet written */
+    private void flushOutput() {
+        try {
+            console.flush();
         }
-        else if (frame.ip instanceof IRBinOp) {
-            long r = exprStack.popValue();
-            long l = exprStack.popValue();
-            long result;
-            switch (((IRBinOp) frame.ip).opType()) {
-            case ADD:
-                result = l + r;
-                break;
-            case SUB:
-                result = l - r;
-                break;
-            case MUL:
-                result = l * r;
-                break;
-            case HMUL:
-                result = BigInteger.valueOf(l)
-                                   .multiply(BigInteger.valueOf(r))
-                                   .shiftRight(64)
-                                   .longValue();
-                break;
-            case DIV:
-                if (r == 0) throw new Trap("Division by zero!");
-                result = l / r;
-                break;
-            case MOD:
-                if (r == 0) throw new Trap("Division by zero!");
-                result = l % r;
-                break;
-            case AND:
-                result = l & r;
-                break;
-            case OR:
-                result = l | r;
-                break;
-            case XOR:
-                result = l ^ r;
-                break;
-            case LSHIFT:
-                result = l << r;
+        catch (IOException e) {
+            throw new InternalCompilerError("I/O Exception in simulator");
+        }
+    }
+
+    /**
+     * Run {@code frame} until its function returns. Instructions are executed
+     * in postorder, one at a time, modulo jumps.
+     */
+    protected void execute(ExecutionFrame frame) {
+        final byte[] ops = program.ops;
+        final int[] a = program.a;
+        final int[] b = program.b;
+        final long[] values = program.values;
+        final int[] funcOf = program.funcOf;
+        final int size = program.size();
+        final Profiler profiler = this.profiler;
+
+        int ip = program.entries.get(frame.func);
+        while (true) {
+            if (profiler != null) profiler.count(ip);
+            if (debugLevel > 1)
+                out.println("Evaluating " + program.insns[ip].label());
+            int next = ip + 1;
+
+            switch (ops[ip]) {
+            case LinkedProgram.CONST:
+                exprStack.pushValue(values[ip]);
                 break;
-            case RSHIFT:
-                result = l >>> r;
+            case LinkedProgram.TEMP: {
+                int slot = a[ip];
+                if (b[ip] != 0) {
+                    if (debugLevel > 1) out.println("Pushing TEMP "
+                            + globals[slot] + " (" + program.globals.get(slot) + ")");
+                    exprStack.pushTemp(globals[slot], ~slot);
+                    break;
+                }
+                if (funcOf[ip] != frame.func) frame.enter(funcOf[ip]);
+                if (debugLevel > 1) out.println("Pushing TEMP "
+                        + frame.temps[slot] + " ("
+                        + program.locals.get(frame.func).get(slot) + ")");
+                exprStack.pushTemp(frame.temps[slot], slot);
                 break;
-            case ARSHIFT:
-                result = l >> r;
+            }
+            case LinkedProgram.BINOP: {
+                long r = exprStack.popValue();
+                long l = exprStack.popValue();
+                exprStack.pushValue(binop(OP_TYPES[a[ip]], l, r));
                 break;
-            case EQ:
-                result = l == r ? 1 : 0;
+            }
+            case LinkedProgram.MEM: {
+                long addr = Heap.index(exprStack.popValue());
+                exprStack.pushAddr(mem.get(addr), addr);
                 break;
-            case NEQ:
-                result = l != r ? 1 : 0;
+            }
+            case LinkedProgram.CALL: {
+                int argsCount = a[ip];
+                long args[] = new long[argsCount];
+                for (int i = argsCount - 1; i >= 0; --i)
+                    args[i] = exprStack.popValue();
+                byte kind = exprStack.kind();
+                long target = exprStack.value();
+                long ref = exprStack.ref();
+                exprStack.pop();
+                long retVal;
+                if (kind == ExprStack.NAME) {
+                    if (target >= 0 && ops[(int) target] == LinkedProgram.FUNC)
+                        retVal = call(funcOf[(int) target], args);
+                    else if (program.library[(int) ref] >= 0)
+                        retVal = callLibrary(program.library[(int) ref], args);
+                    else retVal = call(program.names.get((int) ref), args);
+                }
+                else if (target >= 0 && target < size) {
+                    if (ops[(int) target] == LinkedProgram.FUNC)
+                        retVal = call(funcOf[(int) target], args);
+                    else throw new InternalCompilerError("Call to a non-function instruction!");
+                }
+                else throw new InternalCompilerError("Invalid function call '"
+                        + program.insns[ip] + "' (target '" + target
+                        + "' is unknown)!");
+                exprStack.pushValue(retVal);
                 break;
-            case LT:
-                result = l < r ? 1 : 0;
+            }
+            case LinkedProgram.NAME: {
+                String name = program.names.get(a[ip]);
+                if (b[ip] == LinkedProgram.NAME_UNKNOWN)
+                    throw new InternalCompilerError("Invalid destination in NAME: '"
+                            + name + "'");
+                exprStack.pushName(values[ip], a[ip], name);
                 break;
-            case GT:
-                result = l > r ? 1 : 0;
+            }
+            case LinkedProgram.MOVE: {
+                long r = exprStack.popValue();
+                byte kind = exprStack.kind();
+                long ref = exprStack.ref();
+                exprStack.pop();
+                if (kind == ExprStack.MEM) {
+                    if (debugLevel > 0) out.println("mem["
+                            + ref * Configuration.WORD_SIZE + "]=" + r);
+                    mem.set(ref, r);
+                }
+                else if (kind == ExprStack.TEMP) {
+                    int slot = (int) ref;
+                    if (debugLevel > 0) out.println("temp["
+                            + (slot < 0 ? program.globals.get(~slot)
+                                        : program.locals.get(frame.func).get(slot))
+                            + "]=" + r);
+                    if (slot < 0) globals[~slot] = r;
+                    else frame.temps[slot] = r;
+                }
+                else throw new InternalCompilerError("Invalid MOVE!");
                 break;
-            case LEQ:
-                result = l <= r ? 1 : 0;
+            }
+            case LinkedProgram.EXP:
+                // Discard result.
+                exprStack.pop();
                 break;
-            case GEQ:
-                result = l >= r ? 1 : 0;
+            case LinkedProgram.JUMP: {
+                long target = exprStack.popValue();
+                if (target < 0 || target >= size) return;
+                next = jumpTo((int) target);
                 break;
-            default:
-                throw new InternalCompilerError("Invalid binary operation");
             }
-            exprStack.pushValue(result);
-        }
-        else if (frame.ip instanceof IRMem) {
-            long addr = exprStack.popValue();
-            if (addr % Configuration.WORD_SIZE != 0)
-                throw new Trap("Unaligned memory access: " + addr
-                        + " (word size=" + Configuration.WORD_SIZE + ")");
-            addr /= Configuration.WORD_SIZE;
-            exprStack.pushAddr(mem[(int) addr], addr);
-        }
-        else if (frame.ip instanceof IRCall) {
-            int argsCount = ((IRCall) frame.ip).args().size();
-            long args[] = new long[argsCount];
-            for (int i = argsCount - 1; i >= 0; --i)
-                args[i] = exprStack.popValue();
-            StackItem target = exprStack.pop();
-            String targetName = target.name;
-            if (target.type != StackItem.Kind.NAME) {
-                if (indexToInsn.containsKey(target.value)) {
-                    IRNode node = indexToInsn.get(target.value);
-                    if (node instanceof IRFuncDecl)
-                        targetName = ((IRFuncDecl) node).name();
-                    else throw new InternalCompilerError("Call to a non-function instruction!");
+            case LinkedProgram.CJUMP: {
+                long top = exprStack.popValue();
+                int target;
+                if (top == 0)
+                    target = b[ip];
+                else if (top == 1)
+                    target = a[ip];
+                else throw new InternalCompilerError("Invalid value in CJUMP - expected 0/1, got "
+                        + top);
+                if (target == LinkedProgram.MISSING_LABEL) {
+                    IRCJump irCJump = (IRCJump) program.insns[ip];
+                    throw new Trap("Could not find label '"
+                            + (top == 0 ? irCJump.falseLabel() : irCJump.trueLabel())
+                            + "'!");
                 }
-                else throw new InternalCompilerError("Invalid function call '"
-                        + frame.ip + "' (target '" + target.value
-                        + "' is unknown)!");
-            }
-
-            long retVal = call(targetName, args);
-            exprStack.pushValue(retVal);
-        }
-        else if (frame.ip instanceof IRName) {
-            String name = ((IRName) frame.ip).name();
-            if (libraryFunctions.contains(name))
-                exprStack.pushName(-1, name);
-            else if (nameToIndex.containsKey(name))
-                exprStack.pushName(nameToIndex.get(name), name);
-            else throw new InternalCompilerError("Invalid destination in NAME: '"
-                    + name + "'");
-        }
-        else if (frame.ip instanceof IRMove) {
-            long r = exprStack.popValue();
-            StackItem stackItem = exprStack.pop();
-            if (stackItem.type == StackItem.Kind.MEM) {
-                if (debugLevel > 0) System.out.println("mem["
-                        + stackItem.addr * Configuration.WORD_SIZE + "]=" + r);
-                mem[(int) stackItem.addr] = r;
+                if (target != LinkedProgram.NO_LABEL) next = jumpTo(target);
+                break;
             }
-            else if (stackItem.type == StackItem.Kind.TEMP) {
-                if (debugLevel > 0)
-                    System.out.println("temp[" + stackItem.temp + "]=" + r);
-                put(frame, stackItem.temp, r);
+            case LinkedProgram.RETURN:
+                return;
+            default:
+                break;
             }
-            else throw new InternalCompilerError("Invalid MOVE!");
+
+            if (next >= size)
+                throw new Trap("No next instruction.  Forgot RETURN?");
+            ip = next;
         }
-        else if (frame.ip instanceof IRExp)
-            // Discard result.
-            exprStack.pop();
-        else if (frame.ip instanceof IRJump)
-            frame.setIP(indexToInsn.get(exprStack.popValue()));
-        else if (frame.ip instanceof IRCJump) {
-            IRCJump irCJump = (IRCJump) frame.ip;
-            long top = exprStack.popValue();
-            String label;
-            if (top == 0)
-                label = irCJump.falseLabel();
-            else if (top == 1)
-                label = irCJump.trueLabel();
-            else throw new InternalCompilerError("Invalid value in CJUMP - expected 0/1, got "
-                    + top);
-            if (label != null) frame.setIP(findLabel(label));
+    }
+
+    private int jumpTo(int target) {
+        if (debugLevel > 1)
+            out.println("Jumping to " + program.insns[target].label());
+        return target;
+    }
+
+    protected static long binop(IRBinOp.OpType opType, long l, long r) {
+        switch (opType) {
+        case ADD:
+            return l + r;
+        case SUB:
+            return l - r;
+        case MUL:
+            return l * r;
+        case HMUL:
+            return BigInteger.valueOf(l)
+                             .multiply(BigInteger.valueOf(r))
+                             .shiftRight(64)
+                             .longValue();
+        case DIV:
+            if (r == 0) throw new Trap("Division by zero!");
+            return l / r;
+        case MOD:
+            if (r == 0) throw new Trap("Division by zero!");
+            return l % r;
+        case AND:
+            return l & r;
+        case OR:
+            return l | r;
+        case XOR:
+            return l ^ r;
+        case LSHIFT:
+            return l << r;
+        case RSHIFT:
+            return l >>> r;
+        case ARSHIFT:
+            return l >> r;
+        case EQ:
+            return l == r ? 1 : 0;
+        case NEQ:
+            return l != r ? 1 : 0;
+        case LT:
+            return l < r ? 1 : 0;
+        case GT:
+            return l > r ? 1 : 0;
+        case LEQ:
+            return l <= r ? 1 : 0;
+        case GEQ:
+            return l >= r ? 1 : 0;
+        default:
+            throw new InternalCompilerError("Invalid binary operation");
         }
-        else if (frame.ip instanceof IRReturn) frame.setIP(null);
     }
 
     /**
-     *
-     * @param name name of the label
-     * @return the IR node at the named label
+     * Temps of a new frame of function {@code func}. Each frame gets garbage
+     * of its own, so a temp read before it is written differs from call to
+     * call, as it would on a real machine.
      */
-    private IRNode findLabel(String name) {
-        if (!nameToIndex.containsKey(name))
-            throw new Trap("Could not find label '" + name + "'!");
-        return indexToInsn.get(nameToIndex.get(name));
+    protected long[] newTemps(int func) {
+        long[] temps = new long[frameSizes[func]];
+        for (int i = 0; i < temps.length; i++)
+            temps[i] = garbage.nextLong();
+        return temps;
     }
 
     /**
-     * Holds the instruction pointer and temporary registers
-     * within an execution frame.
+     * Holds the temporary registers within an execution frame.
      */
-    private class ExecutionFrame {
-        /** instruction pointer */
-        public IRNode ip;
+    protected class ExecutionFrame {
+        /** the function whose slots {@code temps} is laid out in */
+        public int func;
 
-        /** local registers (register name -> value) */
-        private Map<String, Long> regs;
+        /** local registers, indexed by slot */
+        public long[] temps;
 
-        public ExecutionFrame(IRNode ip) {
-            this.ip = ip;
-            regs = new HashMap<>();
-        }
-
-        /**
-         * Fetch the value at the given register
-         * @param tempName name of the register
-         * @return the value at the given register
-         */
-        public long get(String tempName) {
-            if (!regs.containsKey(tempName)) {
-                /* Referencing a temp before having written to it - initialize
-                   with garbage */
-                put(tempName, r.nextLong());
-            }
-            return regs.get(tempName);
-        }
+        /** temps of other functions this frame has been in, by name */
+        private Map<String, Long> spilled;
 
-        /**
-         * Store a value into the given register
-         * @param tempName name of the register
-         * @param value value to be stored
-         */
-        public void put(String tempName, long value) {
-            regs.put(tempName, value);
+        public ExecutionFrame(int func) {
+            this.func = func;
+            temps = newTemps(func);
         }
 
         /**
-         * Advance the instruction pointer. Since we're dealing with a tree,
-         * this is postorder traversal, one step at a time, modulo jumps.
+         * Lay this frame out in the slots of function {@code func}. Control
+         * only leaves the function a frame was called in by jumping or
+         * falling through into another one, so this is rarely needed.
          */
-        public boolean advance() {
-            long index = insnToIndex.get(ip);
-            if (debugLevel > 1) System.out.println("Evaluating " + ip.label());
-            IRNode backupIP = ip;
-            leave(this);
-
-            if (ip == null) return false; /* RETURN */
-
-            if (ip != backupIP) /* A jump was performed */
-                return true;
-
-            ip = indexToInsn.get(index + 1);
-            if (ip == null)
-                throw new Trap("No next instruction.  Forgot RETURN?");
-            return true;
-        }
-
-        public void setIP(IRNode node) {
-            if (debugLevel > 1)
-                System.out.println("Jumping to " + node.label());
-            ip = node;
+        public void enter(int func) {
+            if (spilled == null) spilled = new HashMap<>();
+            List<String> names = program.locals.get(this.func);
+            for (int i = 0; i < names.size(); i++)
+                spilled.put(names.get(i), temps[i]);
+
+            long[] temps = newTemps(func);
+            names = program.locals.get(func);
+            for (int i = 0; i < names.size(); i++) {
+                Long value = spilled.get(names.get(i));
+                if (value != null) temps[i] = value;
+            }
+            this.func = func;
+            this.temps = temps;
         }
     };
 
@@ -555,79 +695,88 @@ public class IRSimulator {
      * a number of single-word values (e.g. to evaluate binary expressions).
      * This also keeps track of whether a value was created by a TEMP
      * or MEM, or NAME reference, which is useful when executing moves.
+     *
+     * Each entry is a value, its kind and a reference: the word address of
+     * a MEM, the slot of a TEMP ({@code ~slot} for a global register) or the
+     * name id of a NAME. They are kept in parallel arrays, so pushing and
+     * popping never allocates.
      */
-    private static class ExprStack {
+    private class ExprStack {
+        static final byte COMPUTED = 0;
+        static final byte MEM = 1;
+        static final byte TEMP = 2;
+        static final byte NAME = 3;
 
-        private Stack<StackItem> stack;
+        private long[] values;
+        private long[] refs;
+        private byte[] kinds;
+        private int size;
 
         public ExprStack() {
-            stack = new Stack<>();
+            values = new long[64];
+            refs = new long[64];
+            kinds = new byte[64];
+            size = 0;
         }
 
-        public long popValue() {
-            if (debugLevel > 1)
-                System.out.println("Popping value " + stack.peek().value);
-            return stack.pop().value;
-        }
-
-        public StackItem pop() {
-            return stack.pop();
+        private void push(byte kind, long value, long ref) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+                refs = Arrays.copyOf(refs, size * 2);
+                kinds = Arrays.copyOf(kinds, size * 2);
+            }
+            kinds[size] = kind;
+            values[size] = value;
+            refs[size] = ref;
+            size++;
         }
 
-        public void pushAddr(long value, long addr) {
+        public long popValue() {
             if (debugLevel > 1)
-                System.out.println("Pushing MEM " + value + " (" + addr + ")");
-            stack.push(new StackItem(value, addr));
+                out.println("Popping value " + values[size - 1]);
+            return values[--size];
         }
 
-        public void pushTemp(long value, String temp) {
-            if (debugLevel > 1)
-                System.out.println("Pushing TEMP " + value + " (" + temp + ")");
-            stack.push(new StackItem(StackItem.Kind.TEMP, value, temp));
+        public void pop() {
+            size--;
         }
 
-        public void pushName(long value, String name) {
-            if (debugLevel > 1)
-                System.out.println("Pushing NAME " + value + " (" + name + ")");
-            stack.push(new StackItem(StackItem.Kind.NAME, value, name));
+        /** The kind of the top entry */
+        public byte kind() {
+            return kinds[size - 1];
         }
 
-        public void pushValue(long value) {
-            if (debugLevel > 1) System.out.println("Pushing value " + value);
-            stack.push(new StackItem(value));
+        /** The value of the top entry */
+        public long value() {
+            return values[size - 1];
         }
-    }
 
-    public static class StackItem {
-        public enum Kind {
-            COMPUTED, MEM, TEMP, NAME;
+        /** The reference of the top entry */
+        public long ref() {
+            return refs[size - 1];
         }
 
-        public Kind type;
-        public long value;
-        public long addr;
-        public String temp;
-        public String name;
+        public void pushAddr(long value, long addr) {
+            if (debugLevel > 1)
+                out.println("Pushing MEM " + value + " (" + addr + ")");
+            push(MEM, value, addr);
+        }
 
-        public StackItem(long value) {
-            type = Kind.COMPUTED;
-            this.value = value;
+        public void pushTemp(long value, int slot) {
+            push(TEMP, value, slot);
         }
 
-        public StackItem(long value, long addr) {
-            type = Kind.MEM;
-            this.value = value;
-            this.addr = addr;
+        public void pushName(long value, int nameId, String name) {
+            if (debugLevel > 1)
+                out.println("Pushing NAME " + value + " (" + name + ")");
+            push(NAME, value, nameId);
         }
 
-        public StackItem(Kind type, long value, String string) {
-            this.type = type;
-            this.value = value;
-            if (type == Kind.TEMP)
-                temp = string;
-            else name = string;
+        public void pushValue(long value) {
+            if (debugLevel > 1) out.println("Pushing value " + value);
+            push(COMPUTED, value, 0);
         }
-    };
+    }
 
     public static class Trap extends RuntimeException {
         private static final long serialVersionUID = 8429929900405296472L;
@@ -0,0 +1,317 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cornell.cs.cs4120.util.InternalCompilerError;
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCJump;
+import edu.cornell.cs.cs4120.xic.ir.IRCall;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
+import edu.cornell.cs.cs4120.xic.ir.IRJump;
+import edu.cornell.cs.cs4120.xic.ir.IRMem;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRName;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import edu.cornell.cs.cs4120.xic.ir.IRReturn;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+
+/**
+ * A compilation unit flattened into dense arrays of opcodes and operands, one
+ * instruction per IR node in the postorder {@link IRSimulator} executes them
+ * in. Instruction {@code i} is the node at index {@code i} of an {@link
+ * edu.cornell.cs.cs4120.xic.ir.visit.InsnMapsBuilder}. Names are resolved
+ * once, when the program is linked, rather than on every execution.
+ *
+ * Temps are resolved to slots. Global registers share one set of slots
+ * across the whole program; every other temp gets a slot local to the
+ * function whose instructions mention it, so a frame is a {@code long[]}
+ * with one element per local of its function.
+ */
+class LinkedProgram {
+    /* Opcodes */
+    static final byte NOP = 0;    /* SEQ, ESEQ, LABEL, COMPUNIT */
+    static final byte FUNC = 1;   /* function entry */
+    static final byte CONST = 2;  /* value: the constant */
+    static final byte TEMP = 3;   /* a: slot, b: 1 if a global register */
+    static final byte BINOP = 4;  /* a: IRBinOp.OpType ordinal */
+    static final byte MEM = 5;
+    static final byte CALL = 6;   /* a: number of arguments */
+    static final byte NAME = 7;   /* a: name id, b: NAME_*, value: index */
+    static final byte MOVE = 8;
+    static final byte EXP = 9;
+    static final byte JUMP = 10;
+    static final byte CJUMP = 11; /* a: true target, b: false target */
+    static final byte RETURN = 12;
+
+    /* Kinds of NAME */
+    static final int NAME_INSN = 0;
+    static final int NAME_LIBRARY = 1;
+    static final int NAME_UNKNOWN = 2;
+
+    /* CJUMP targets that aren't instructions */
+    static final int NO_LABEL = -1;
+    static final int MISSING_LABEL = -2;
+
+    final byte[] ops;
+    final int[] a;
+    final int[] b;
+    final long[] values;
+
+    /** The IR node each instruction came from */
+    final IRNode[] insns;
+
+    /** The function each instruction is in, or -1 */
+    final int[] funcOf;
+
+    /** Names, indexed by id */
+    final List<String> names;
+
+    /** The library function each name is, indexed by id; -1 if none */
+    final int[] library;
+
+    /** Library functions, indexed by number */
+    final List<String> libraryFunctions;
+
+    /** Global registers, indexed by slot */
+    final List<String> globals;
+
+    /** The slot of argument register i, or -1 if the program never uses it */
+    private int[] argSlots;
+
+    /** The FUNC instruction of each function */
+    final List<Integer> entries;
+
+    /** The local temps of each function, indexed by slot */
+    final List<List<String>> locals;
+
+    private final Map<String, Integer> nameIds;
+    private final Map<String, Integer> globalSlots;
+    private final Map<String, Integer> funcIds;
+    private final Map<String, Integer> libraryIds;
+    private final List<Map<String, Integer>> localSlots;
+
+    /**
+     * Link the instructions {@code indexToInsn} of a compilation unit whose
+     * functions and labels are at {@code nameToIndex}. Library functions are
+     * numbered in the order {@code libraryFunctions} lists them.
+     */
+    LinkedProgram(Map<Long, IRNode> indexToInsn, Map<String, Long> nameToIndex,
+                  Set<String> libraryFunctions) {
+        int n = indexToInsn.size();
+        ops = new byte[n];
+        a = new int[n];
+        b = new int[n];
+        values = new long[n];
+        insns = new IRNode[n];
+        funcOf = new int[n];
+        names = new ArrayList<>();
+        globals = new ArrayList<>();
+        entries = new ArrayList<>();
+        locals = new ArrayList<>();
+        nameIds = new HashMap<>();
+        globalSlots = new HashMap<>();
+        funcIds = new HashMap<>();
+        localSlots = new ArrayList<>();
+        this.libraryFunctions = new ArrayList<>(libraryFunctions);
+        libraryIds = new HashMap<>();
+        for (String name : libraryFunctions)
+            libraryIds.put(name, libraryIds.size());
+
+        // Library calls return through these even if the program never
+        // mentions them.
+        globalSlot(Configuration.ABSTRACT_RET_PREFIX + 0);
+        globalSlot(Configuration.ABSTRACT_RET_PREFIX + 1);
+
+        int func = -1;
+
+        for (int i = 0; i < n; i++) {
+            IRNode insn = indexToInsn.get((long) i);
+            if (insn == null)
+                throw new InternalCompilerError("Instruction indices are not dense");
+            insns[i] = insn;
+
+            // A function's instructions follow its FUNC instruction.
+            if (insn instanceof IRFuncDecl) {
+                func = entries.size();
+                funcIds.put(((IRFuncDecl) insn).name(), func);
+                entries.add(i);
+                locals.add(new ArrayList<>());
+                localSlots.add(new HashMap<>());
+            }
+            funcOf[i] = func;
+
+            if (insn instanceof IRFuncDecl)
+                ops[i] = FUNC;
+            else if (insn instanceof IRConst) {
+                ops[i] = CONST;
+                values[i] = ((IRConst) insn).value();
+            }
+            else if (insn instanceof IRTemp) {
+                String temp = ((IRTemp) insn).name();
+                ops[i] = TEMP;
+                if (isGlobalRegister(temp)) {
+                    a[i] = globalSlot(temp);
+                    b[i] = 1;
+                }
+                else if (func >= 0)
+                    a[i] = localSlot(func, temp);
+                else throw new InternalCompilerError("TEMP " + temp
+                        + " is outside of any function");
+            }
+            else if (insn instanceof IRBinOp) {
+                ops[i] = BINOP;
+                a[i] = ((IRBinOp) insn).opType().ordinal();
+            }
+            else if (insn instanceof IRMem)
+                ops[i] = MEM;
+            else if (insn instanceof IRCall) {
+                ops[i] = CALL;
+                a[i] = ((IRCall) insn).args().size();
+            }
+            else if (insn instanceof IRName) {
+                String name = ((IRName) insn).name();
+                ops[i] = NAME;
+                a[i] = nameId(name);
+                if (libraryFunctions.contains(name)) {
+                    b[i] = NAME_LIBRARY;
+                    values[i] = -1;
+                }
+                else if (nameToIndex.containsKey(name)) {
+                    b[i] = NAME_INSN;
+                    values[i] = nameToIndex.get(name);
+                }
+                else b[i] = NAME_UNKNOWN;
+            }
+            else if (insn instanceof IRMove)
+                ops[i] = MOVE;
+            else if (insn instanceof IRExp)
+                ops[i] = EXP;
+            else if (insn instanceof IRJump)
+                ops[i] = JUMP;
+            else if (insn instanceof IRCJump) {
+                IRCJump cjump = (IRCJump) insn;
+                ops[i] = CJUMP;
+                a[i] = target(cjump.trueLabel(), nameToIndex);
+                b[i] = target(cjump.falseLabel(), nameToIndex);
+            }
+            else if (insn instanceof IRReturn)
+                ops[i] = RETURN;
+            else ops[i] = NOP;
+        }
+
+        argSlots = new int[0];
+        for (int slot = 0; slot < globals.size(); slot++) {
+            String name = globals.get(slot);
+            if (!name.startsWith(Configuration.ABSTRACT_ARG_PREFIX)) continue;
+            int arg;
+            try {
+                arg = Integer.parseInt(name.substring(
+                        Configuration.ABSTRACT_ARG_PREFIX.length()));
+            }
+            catch (NumberFormatException e) {
+                continue;
+            }
+            if (arg < 0 || !name.equals(Configuration.ABSTRACT_ARG_PREFIX + arg))
+                continue;
+            if (arg >= argSlots.length) {
+                int old = argSlots.length;
+                argSlots = Arrays.copyOf(argSlots, arg + 1);
+                Arrays.fill(argSlots, old, arg + 1, -1);
+            }
+            argSlots[arg] = slot;
+        }
+
+        // Calls to the library are resolved here rather than by name.
+        library = new int[names.size()];
+        for (int id = 0; id < library.length; id++)
+            library[id] = library(names.get(id));
+    }
+
+    static boolean isGlobalRegister(String name) {
+        return name.startsWith(Configuration.ABSTRACT_ARG_PREFIX)
+                || name.startsWith(Configuration.ABSTRACT_RET_PREFIX);
+    }
+
+    private static int target(String label, Map<String, Long> nameToIndex) {
+        if (label == null) return NO_LABEL;
+        Long index = nameToIndex.get(label);
+        return index == null ? MISSING_LABEL : (int) (long) index;
+    }
+
+    /** The id of {@code name}, assigning it a fresh one if it has none */
+    int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    /** The slot of global register {@code name}, assigning one if it has none */
+    int globalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        if (slot == null) {
+            slot = globals.size();
+            globals.add(name);
+            globalSlots.put(name, slot);
+        }
+        return slot;
+    }
+
+    /** The slot of argument register {@code i}, or -1 */
+    int argSlot(int i) {
+        return i < argSlots.length ? argSlots[i] : -1;
+    }
+
+    /** The slot of global register {@code name}, or -1 */
+    int findGlobalSlot(String name) {
+        Integer slot = globalSlots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    private int localSlot(int func, String name) {
+        Map<String, Integer> slots = localSlots.get(func);
+        Integer slot = slots.get(name);
+        if (slot == null) {
+            slot = slots.size();
+            locals.get(func).add(name);
+            slots.put(name, slot);
+        }
+        return slot;
+    }
+
+    /** The slot of temp {@code name} in function {@code func}, or -1 */
+    int findLocalSlot(int func, String name) {
+        Integer slot = localSlots.get(func).get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    int size() {
+        return ops.length;
+    }
+
+    int functions() {
+        return entries.size();
+    }
+
+    /** The number of library function {@code name}, or -1 */
+    int library(String name) {
+        Integer id = libraryIds.get(name);
+        return id == null ? -1 : id;
+    }
+
+    /** The number of function {@code name}, or -1 */
+    int function(String name) {
+        Integer func = funcIds.get(name);
+        return func == null ? -1 : func;
+    }
+}
@@ -0,0 +1,277 @@
+package edu.cornell.cs.cs4120.xic.ir.interpret;
+
+import java.io.PrintStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
+import edu.cornell.cs.cs4120.xic.ir.IRLabel;
+
+/**
+ * Counts the IR nodes {@link IRSimulator} executes, and reports them per
+ * function, per basic block, per kind of node and per binary operation.
+ *
+ * Every function call is counted in a calling context tree, so that a
+ * function's nodes can be reported both exclusive of the functions it calls
+ * and inclusive of them, and written as folded stacks: one line per call
+ * stack, with the frames separated by semicolons and followed by the number
+ * of nodes executed in the innermost one, as flame graph tools expect.
+ *
+ * Nodes count towards the function whose frame executes them, which differs
+ * from the function they are in only when control jumps or falls through
+ * from one function into another.
+ */
+public final class Profiler {
+    /** A call stack, identified by its innermost function and its caller */
+    private static final class Context {
+        final int func;
+        final Context parent;
+        final Map<Integer, Context> children = new HashMap<>();
+
+        /** nodes executed with this stack */
+        long self;
+
+        Context(int func, Context parent) {
+            this.func = func;
+            this.parent = parent;
+        }
+
+        Context child(int func) {
+            Context child = children.get(func);
+            if (child == null) {
+                child = new Context(func, this);
+                children.put(func, child);
+            }
+            return child;
+        }
+    }
+
+    private static final IRBinOp.OpType[] OP_TYPES = IRBinOp.OpType.values();
+
+    private final LinkedProgram program;
+
+    /** the number of times each instruction was executed */
+    private final long[] counts;
+
+    /** the number of calls to each function */
+    private final long[] calls;
+
+    /** the number of calls to each library function */
+    private final long[] libraryCalls;
+
+    private final Context root = new Context(-1, null);
+    private Context current = root;
+
+    Profiler(LinkedProgram program) {
+        this.program = program;
+        counts = new long[program.size()];
+        calls = new long[program.functions()];
+        libraryCalls = new long[program.libraryFunctions.size()];
+    }
+
+    /** Instruction {@code ip} is being executed */
+    void count(int ip) {
+        counts[ip]++;
+        current.self++;
+    }
+
+    /** Function {@code func} is being called */
+    void enter(int func) {
+        calls[func]++;
+        current = current.child(func);
+    }
+
+    /** The innermost call has returned */
+    void leave() {
+        current = current.parent;
+    }
+
+    /** Library function number {@code library} is being called */
+    void library(int library) {
+        libraryCalls[library]++;
+    }
+
+    /** The total number of nodes executed */
+    public long total() {
+        long total = 0;
+        for (long c : counts)
+            total += c;
+        return total;
+    }
+
+    /** The number of calls to function {@code name} */
+    public long calls(String name) {
+        int func = program.function(name);
+        if (func >= 0) return calls[func];
+        int library = program.library(name);
+        return library < 0 ? 0 : libraryCalls[library];
+    }
+
+    /**
+     * The number of nodes executed in frames of function {@code name}, 0 if
+     * there is no such function
+     */
+    public long exclusive(String name) {
+        int func = program.function(name);
+        return func < 0 ? 0 : functionCounts()[0][func];
+    }
+
+    /**
+     * The number of nodes executed in frames of function {@code name} and in
+     * the functions it calls, 0 if there is no such function
+     */
+    public long inclusive(String name) {
+        int func = program.function(name);
+        return func < 0 ? 0 : functionCounts()[1][func];
+    }
+
+    private String functionName(int func) {
+        return ((IRFuncDecl) program.insns[program.entries.get(func)]).name();
+    }
+
+    /**
+     * Exclusive and inclusive counts of each function. A recursive call
+     * counts towards the inclusive count of the outermost call only.
+     */
+    private long[][] functionCounts() {
+        long[] exclusive = new long[calls.length];
+        long[] inclusive = new long[calls.length];
+        int[] active = new int[calls.length];
+
+        // Walk the tree iteratively; recursive programs make it deep.
+        Map<Context, Long> subtree = new HashMap<>();
+        Deque<Context> stack = new ArrayDeque<>();
+        Deque<Boolean> expanded = new ArrayDeque<>();
+        stack.push(root);
+        expanded.push(false);
+        while (!stack.isEmpty()) {
+            Context c = stack.pop();
+            if (!expanded.pop()) {
+                if (c.func >= 0) active[c.func]++;
+                stack.push(c);
+                expanded.push(true);
+                for (Context child : c.children.values()) {
+                    stack.push(child);
+                    expanded.push(false);
+                }
+                continue;
+            }
+            long total = c.self;
+            for (Context child : c.children.values())
+                total += subtree.remove(child);
+            subtree.put(c, total);
+            if (c.func >= 0) {
+                exclusive[c.func] += c.self;
+                if (--active[c.func] == 0) inclusive[c.func] += total;
+            }
+        }
+        return new long[][] {exclusive, inclusive};
+    }
+
+    /**
+     * Write the flat profile: functions, basic blocks, kinds of node,
+     * binary operations and library calls, each with the most executed first.
+     */
+    public void writeFlatProfile(PrintStream out) {
+        long total = total();
+        out.println("Total nodes executed: " + total);
+
+        long[][] functionCounts = functionCounts();
+        List<Integer> funcs = new ArrayList<>();
+        for (int f = 0; f < calls.length; f++)
+            if (calls[f] > 0 || functionCounts[0][f] > 0) funcs.add(f);
+        funcs.sort(Comparator.comparingLong(f -> -functionCounts[0][f]));
+        out.println();
+        out.printf("%14s %7s %14s %14s  %s%n",
+                "calls", "self%", "self", "inclusive", "function");
+        for (int f : funcs)
+            out.printf("%14d %6.2f%% %14d %14d  %s%n",
+                    calls[f], percent(functionCounts[0][f], total),
+                    functionCounts[0][f], functionCounts[1][f], functionName(f));
+
+        // Basic blocks start at function entries and labels.
+        Map<String, long[]> blocks = new HashMap<>();
+        long[] block = null;
+        for (int ip = 0; ip < counts.length; ip++) {
+            if (program.ops[ip] == LinkedProgram.FUNC) {
+                block = new long[] {counts[ip], 0};
+                blocks.put(functionName(program.funcOf[ip]), block);
+            }
+            else if (program.insns[ip] instanceof IRLabel && program.funcOf[ip] >= 0) {
+                block = new long[] {counts[ip], 0};
+                blocks.put(functionName(program.funcOf[ip]) + ":"
+                        + ((IRLabel) program.insns[ip]).name(), block);
+            }
+            if (block != null) block[1] += counts[ip];
+        }
+        out.println();
+        out.printf("%14s %14s  %s%n", "entries", "nodes", "block");
+        blocks.entrySet().stream()
+              .filter(e -> e.getValue()[1] > 0)
+              .sorted(Comparator.comparingLong(e -> -e.getValue()[1]))
+              .forEach(e -> out.printf("%14d %14d  %s%n",
+                      e.getValue()[0], e.getValue()[1], e.getKey()));
+
+        Map<String, Long> kinds = new TreeMap<>();
+        Map<String, Long> opTypes = new TreeMap<>();
+        for (int ip = 0; ip < counts.length; ip++) {
+            if (counts[ip] == 0) continue;
+            String kind = program.insns[ip].getClass().getSimpleName()
+                                 .substring(2).toUpperCase();
+            kinds.merge(kind, counts[ip], Long::sum);
+            if (program.ops[ip] == LinkedProgram.BINOP)
+                opTypes.merge(OP_TYPES[program.a[ip]].toString(), counts[ip], Long::sum);
+        }
+        writeCounts(out, "node", kinds, total);
+        writeCounts(out, "binop", opTypes, total);
+
+        out.println();
+        out.printf("%14s  %s%n", "calls", "library function");
+        Map<String, Long> library = new TreeMap<>();
+        for (int l = 0; l < libraryCalls.length; l++)
+            if (libraryCalls[l] > 0)
+                library.put(program.libraryFunctions.get(l), libraryCalls[l]);
+        for (Map.Entry<String, Long> e : library.entrySet())
+            out.printf("%14d  %s%n", e.getValue(), e.getKey());
+    }
+
+    private static void writeCounts(PrintStream out, String what,
+                                    Map<String, Long> counts, long total) {
+        out.println();
+        out.printf("%14s %7s  %s%n", "count", "%", what);
+        counts.entrySet().stream()
+              .sorted(Comparator.comparingLong(e -> -e.getValue()))
+              .forEach(e -> out.printf("%14d %6.2f%%  %s%n",
+                      e.getValue(), percent(e.getValue(), total), e.getKey()));
+    }
+
+    private static double percent(long count, long total) {
+        return total == 0 ? 0 : 100.0 * count / total;
+    }
+
+    /** Write the nodes executed by each call stack, as folded stacks */
+    public void writeFoldedStacks(PrintStream out) {
+        Deque<Context> stack = new ArrayDeque<>();
+        Deque<String> paths = new ArrayDeque<>();
+        for (Context child : root.children.values()) {
+            stack.push(child);
+            paths.push(functionName(child.func));
+        }
+        while (!stack.isEmpty()) {
+            Context c = stack.pop();
+            String path = paths.pop();
+            if (c.self > 0) out.println(path + " " + c.self);
+            for (Context child : c.children.values()) {
+                stack.push(child);
+                paths.push(path + ";" + functionName(child.func));
+            }
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package edu.cornell.cs.cs4120.xic.ir.parse;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cornell.cs.cs4120.xic.ir.FlatIR;
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCJump;
+import edu.cornell.cs.cs4120.xic.ir.IRCall;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRESeq;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.IRFuncDecl;
+import edu.cornell.cs.cs4120.xic.ir.IRJump;
+import edu.cornell.cs.cs4120.xic.ir.IRLabel;
+import edu.cornell.cs.cs4120.xic.ir.IRMem;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRName;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import edu.cornell.cs.cs4120.xic.ir.IRReturn;
+import edu.cornell.cs.cs4120.xic.ir.IRSeq;
+import edu.cornell.cs.cs4120.xic.ir.IRStmt;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+
+/**
+ * A compact binary encoding of IR trees, which loads much faster than the
+ * S-expression syntax {@link IRParser} reads.
+ *
+ * A file starts with the magic bytes {@code XIRB} and a version byte, then
+ * holds the names the tree uses, each once, and then the nodes of the tree
+ * in postorder, so that a reader can rebuild it with a stack. Each node is
+ * an opcode byte from {@link FlatIR} followed by its operands:
+ *
+ * <pre>
+ * COMPUNIT   name, number of functions
+ * FUNC       name
+ * SEQ        number of statements
+ * CALL       number of arguments + 1, for the target
+ * CJUMP      true label, false label + 1 or 0 if there is none
+ * LABEL      name
+ * TEMP       name
+ * NAME       name
+ * CONST      value, zigzag encoded
+ * MEM        IRMem.MemType ordinal
+ * BINOP      IRBinOp.OpType ordinal
+ * </pre>
+ *
+ * Names are indices into the name table. Every number is an unsigned LEB128
+ * varint, so small ones take a single byte.
+ */
+public final class IRBinary {
+    private static final byte[] MAGIC = {'X', 'I', 'R', 'B'};
+    private static final int VERSION = 1;
+
+    private static final IRBinOp.OpType[] OP_TYPES = IRBinOp.OpType.values();
+    private static final IRMem.MemType[] MEM_TYPES = IRMem.MemType.values();
+
+    private IRBinary() {
+    }
+
+    /** Write the tree rooted at {@code root} to {@code out} */
+    public static void write(IRNode root, OutputStream out) throws IOException {
+        FlatIR ir = new FlatIR(root);
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.write(MAGIC);
+        data.writeByte(VERSION);
+
+        List<String> names = ir.names();
+        writeVarint(data, names.size());
+        for (String name : names) {
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            writeVarint(data, bytes.length);
+            data.write(bytes);
+        }
+
+        writeVarint(data, ir.size());
+        for (int node = 0; node < ir.size(); node++) {
+            byte op = ir.op(node);
+            data.writeByte(op);
+            switch (op) {
+            case FlatIR.COMPUNIT:
+                writeVarint(data, ir.nameId(node));
+                writeVarint(data, ir.childCount(node));
+                break;
+            case FlatIR.SEQ:
+            case FlatIR.CALL:
+                writeVarint(data, ir.childCount(node));
+                break;
+            case FlatIR.CJUMP:
+                writeVarint(data, ir.trueLabelId(node));
+                writeVarint(data, ir.falseLabelId(node) + 1);
+                break;
+            case FlatIR.FUNC:
+            case FlatIR.LABEL:
+            case FlatIR.TEMP:
+            case FlatIR.NAME:
+                writeVarint(data, ir.nameId(node));
+                break;
+            case FlatIR.CONST: {
+                long value = ir.constant(node);
+                writeVarint(data, (value << 1) ^ (value >> 63));
+                break;
+            }
+            case FlatIR.MEM:
+                writeVarint(data, ir.memType(node).ordinal());
+                break;
+            case FlatIR.BINOP:
+                writeVarint(data, ir.opType(node).ordinal());
+                break;
+            }
+        }
+        data.flush();
+    }
+
+    /** Write the tree rooted at {@code root} to file {@code path} */
+    public static void write(IRNode root, Path path) throws IOException {
+        try (OutputStream out = Files.newOutputStream(path)) {
+            write(root, out);
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            out.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /** Whether file {@code path} starts like binary IR */
+    public static boolean isBinary(Path path) throws IOException {
+        byte[] start = new byte[MAGIC.length];
+        try (InputStream in = Files.newInputStream(path)) {
+            int n = 0;
+            while (n < start.length) {
+                int read = in.read(start, n, start.length - n);
+                if (read < 0) return false;
+                n += read;
+            }
+        }
+        return Arrays.equals(start, MAGIC);
+    }
+
+    /** Read the tree in file {@code path}, which is mapped into memory */
+    public static IRNode read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** Read the tree in {@code buf}, from its position */
+    public static IRNode read(ByteBuffer buf) throws IOException {
+        try {
+            return new Reader(buf).read();
+        }
+        catch (BufferUnderflowException e) {
+            throw new IOException("Binary IR ends too soon");
+        }
+        catch (ClassCastException | IndexOutOfBoundsException e) {
+            throw new IOException("Malformed binary IR at byte " + buf.position());
+        }
+    }
+
+    private static final class Reader {
+        private final ByteBuffer buf;
+        private String[] names;
+        private IRNode[] stack = new IRNode[64];
+        private int depth;
+
+        Reader(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        IRNode read() throws IOException {
+            byte[] magic = new byte[MAGIC.length];
+            buf.get(magic);
+            if (!Arrays.equals(magic, MAGIC))
+                throw new IOException("Not a binary IR file");
+            int version = buf.get();
+            if (version != VERSION)
+                throw new IOException("Unsupported binary IR version " + version);
+
+            int nameCount = count();
+            if (nameCount > buf.remaining())
+                throw new IOException("Malformed binary IR: " + nameCount + " names");
+            names = new String[nameCount];
+            byte[] bytes = new byte[64];
+            for (int i = 0; i < names.length; i++) {
+                int length = count();
+                if (length > buf.remaining())
+                    throw new IOException("Malformed binary IR: name of " + length + " bytes");
+                if (length > bytes.length) bytes = new byte[length];
+                buf.get(bytes, 0, length);
+                names[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+            }
+
+            int size = count();
+            for (int i = 0; i < size; i++)
+                push(node(buf.get()));
+            if (depth != 1)
+                throw new IOException("Malformed binary IR: " + depth + " roots");
+            return stack[0];
+        }
+
+        private IRNode node(byte op) throws IOException {
+            switch (op) {
+            case FlatIR.COMPUNIT: {
+                String name = name();
+                int n = count();
+                Map<String, IRFuncDecl> functions = new LinkedHashMap<>();
+                for (int i = depth - n; i < depth; i++) {
+                    IRFuncDecl func = (IRFuncDecl) stack[i];
+                    functions.put(func.name(), func);
+                }
+                pop(n);
+                return new IRCompUnit(name, functions);
+            }
+            case FlatIR.FUNC:
+                return new IRFuncDecl(name(), (IRStmt) pop(1)[0]);
+            case FlatIR.SEQ: {
+                int n = count();
+                List<IRStmt> stmts = new ArrayList<>(n);
+                for (int i = depth - n; i < depth; i++)
+                    stmts.add((IRStmt) stack[i]);
+                pop(n);
+                return new IRSeq(stmts);
+            }
+            case FlatIR.ESEQ: {
+                IRNode[] kids = pop(2);
+                return new IRESeq((IRStmt) kids[0], (IRExpr) kids[1]);
+            }
+            case FlatIR.EXP:
+                return new IRExp((IRExpr) pop(1)[0]);
+            case FlatIR.MOVE: {
+                IRNode[] kids = pop(2);
+                return new IRMove((IRExpr) kids[0], (IRExpr) kids[1]);
+            }
+            case FlatIR.JUMP:
+                return new IRJump((IRExpr) pop(1)[0]);
+            case FlatIR.CJUMP: {
+                String trueLabel = name();
+                int falseLabel = count();
+                return new IRCJump((IRExpr) pop(1)[0], trueLabel,
+                                   falseLabel == 0 ? null : names[falseLabel - 1]);
+            }
+            case FlatIR.LABEL:
+                return new IRLabel(name());
+            case FlatIR.RETURN:
+                return new IRReturn();
+            case FlatIR.CONST: {
+                long value = varint();
+                return new IRConst((value >>> 1) ^ -(value & 1));
+            }
+            case FlatIR.TEMP:
+                return new IRTemp(name());
+            case FlatIR.NAME:
+                return new IRName(name());
+            case FlatIR.MEM:
+                return new IRMem((IRExpr) pop(1)[0], MEM_TYPES[count()]);
+            case FlatIR.BINOP: {
+                IRBinOp.OpType type = OP_TYPES[count()];
+                IRNode[] kids = pop(2);
+                return new IRBinOp(type, (IRExpr) kids[0], (IRExpr) kids[1]);
+            }
+            case FlatIR.CALL: {
+                int n = count();
+                if (n < 1 || n > depth)
+                    throw new IOException("Malformed binary IR at byte " + buf.position());
+                List<IRExpr> args = new ArrayList<>(n - 1);
+                for (int i = depth - n + 1; i < depth; i++)
+                    args.add((IRExpr) stack[i]);
+                IRExpr target = (IRExpr) stack[depth - n];
+                pop(n);
+                return new IRCall(target, args);
+            }
+            default:
+                throw new IOException("Unknown opcode " + op + " in binary IR at byte "
+                        + (buf.position() - 1));
+            }
+        }
+
+        /** the nodes {@link #pop} returns */
+        private final IRNode[] popped = new IRNode[2];
+
+        /** Pop {@code n} nodes, returning the first two of them in order */
+        private IRNode[] pop(int n) throws IOException {
+            if (n > depth)
+                throw new IOException("Malformed binary IR at byte " + buf.position());
+            depth -= n;
+            if (n == 1) popped[0] = stack[depth];
+            else if (n == 2) {
+                popped[0] = stack[depth];
+                popped[1] = stack[depth + 1];
+            }
+            Arrays.fill(stack, depth, depth + n, null);
+            return popped;
+        }
+
+        private void push(IRNode node) {
+            if (depth == stack.length) stack = Arrays.copyOf(stack, depth * 2);
+            stack[depth++] = node;
+        }
+
+        private String name() throws IOException {
+            return names[count()];
+        }
+
+        /** A varint that must fit in a non-negative int */
+        private int count() throws IOException {
+            long value = varint();
+            if (value < 0 || value > Integer.MAX_VALUE)
+                throw new IOException("Malformed binary IR at byte " + buf.position());
+            return (int) value;
+        }
+
+        private long varint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = buf.get();
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Malformed binary IR at byte " + buf.position());
+        }
+    }
+}
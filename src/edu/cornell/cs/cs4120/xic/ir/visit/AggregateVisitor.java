@@ -1,5 +1,8 @@
 package edu.cornell.cs.cs4120.xic.ir.visit;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.Copy;
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
 import edu.cornell.cs.cs4120.xic.ir.IRNode;
@@ -20,33 +23,95 @@ public abstract class AggregateVisitor<T> implements Copy<AggregateVisitor<T>> {
      */
     public abstract T bind(T r1, T r2);
 
-    /**
-     * Recursively traverse the IR subtree rooted at {@code n}
-     */
-    public T visit(IRNode parent, IRNode n) {
-        if (n == null) return null;
-
-        /* Allow the visitor implementation to hijack traversal of n */
-        T overrideValue = override(parent, n);
-        if (overrideValue != null) return overrideValue;
-
-        AggregateVisitor<T> v_ = enter(parent, n);
-        if (v_ == null)
-            throw new InternalCompilerError("AggregateVisitor.enter() returned null!");
+    /** A node whose subtree is being traversed */
+    private static final class Frame<T> {
+        AggregateVisitor<T> v;
+        IRNode parent;
+        IRNode n;
 
-        T r = n.aggregateChildren(v_);
-        if (r == null)
-            throw new InternalCompilerError("AggregateVisitor.visitChildren() returned null!");
+        /** the visitor {@code enter} returned for the subtree */
+        AggregateVisitor<T> v_;
+        List<IRNode> children;
+        int next;
 
-        r = leave(parent, n, r, v_);
-        if (r == null)
-            throw new InternalCompilerError("AggregateVisitor.leave() returned null!");
+        /** the results of the children so far, bound together */
+        T r;
+    }
 
-        return r;
+    /**
+     * Traverse the IR subtree rooted at {@code n}. Traversal uses an explicit
+     * stack rather than recursion, so it handles arbitrarily deep trees.
+     */
+    public T visit(IRNode parent, IRNode n) {
+        List<Frame<T>> stack = new ArrayList<>();
+        int depth = 0;
+        AggregateVisitor<T> v = this;
+        T result;
+        while (true) {
+            // Start n, which v visits as a child of parent.
+            result = null;
+            boolean started = false;
+            if (n != null) {
+                /* Allow the visitor implementation to hijack traversal of n */
+                result = v.override(parent, n);
+                if (result == null) {
+                    AggregateVisitor<T> v_ = v.enter(parent, n);
+                    if (v_ == null)
+                        throw new InternalCompilerError("AggregateVisitor.enter() returned null!");
+
+                    if (depth == stack.size()) stack.add(new Frame<>());
+                    Frame<T> f = stack.get(depth++);
+                    f.v = v;
+                    f.parent = parent;
+                    f.n = n;
+                    f.v_ = v_;
+                    f.children = n.children();
+                    f.next = 0;
+                    f.r = v_.unit();
+                    started = true;
+                }
+            }
+
+            // Finish every node whose children are all done, then move on
+            // to the next child.
+            while (true) {
+                if (!started) {
+                    // result is the result of the child just finished.
+                    if (depth == 0) return result;
+                    Frame<T> f = stack.get(depth - 1);
+                    f.r = f.v_.bind(f.r, result);
+                    f.next++;
+                }
+
+                Frame<T> f = stack.get(depth - 1);
+                if (f.next < f.children.size()) {
+                    v = f.v_;
+                    parent = f.n;
+                    n = f.children.get(f.next);
+                    break;
+                }
+
+                T r = f.r;
+                if (r == null)
+                    throw new InternalCompilerError("AggregateVisitor.visitChildren() returned null!");
+
+                r = f.v.leave(f.parent, f.n, r, f.v_);
+                if (r == null)
+                    throw new InternalCompilerError("AggregateVisitor.leave() returned null!");
+
+                f.v = f.v_ = null;
+                f.parent = f.n = null;
+                f.children = null;
+                f.r = null;
+                depth--;
+                result = r;
+                started = false;
+            }
+        }
     }
 
     /**
-     * Recursively traverse the IR subtree rooted at {@code n}
+     * Traverse the IR subtree rooted at {@code n}
      */
     public T visit(IRNode node) {
         return visit(null, node);
@@ -88,7 +153,8 @@ public abstract class AggregateVisitor<T> implements Copy<AggregateVisitor<T>> {
      * @param n
      *            The original node in the input AST
      * @param r
-     *            The result returned by {@link IRNode#aggregateChildren(AggregateVisitor)}
+     *            The results of the children of {@code n}, bound together
+     *            starting from the unit of {@code v_}
      * @param v_
      *            The new node visitor created by
      *            {@link #enter(IRNode, IRNode)}, or {@code this}.
@@ -1,36 +1,103 @@
 package edu.cornell.cs.cs4120.xic.ir.visit;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
 import edu.cornell.cs.cs4120.xic.ir.IRNode;
 
 public abstract class IRVisitor {
+    /** A node whose subtree is being traversed */
+    private static final class Frame {
+        IRVisitor v;
+        IRNode parent;
+        IRNode n;
+
+        /** the visitor {@code enter} returned for the subtree */
+        IRVisitor v_;
+        List<IRNode> children;
+        int next;
+
+        /** the new children, or null while they are the same as the old */
+        List<IRNode> results;
+    }
+
     /**
-     * Recursively traverse the IR subtree rooted at {@code n}
+     * Traverse the IR subtree rooted at {@code n}. Traversal uses an explicit
+     * stack rather than recursion, so it handles arbitrarily deep trees.
      */
     public IRNode visit(IRNode parent, IRNode n) {
-        if (n == null) return null;
+        List<Frame> stack = new ArrayList<>();
+        int depth = 0;
+        IRVisitor v = this;
+        IRNode result;
+        while (true) {
+            // Start n, which v visits as a child of parent.
+            result = null;
+            boolean started = false;
+            if (n != null) {
+                /* Allow the visitor implementation to hijack traversal of n */
+                result = v.override(parent, n);
+                if (result == null) {
+                    IRVisitor v_ = v.enter(parent, n);
+                    if (v_ == null)
+                        throw new InternalCompilerError("IRVisitor.enter() returned null!");
 
-        /* Allow the visitor implementation to hijack traversal of n */
-        IRNode overrideValue = override(parent, n);
-        if (overrideValue != null) return overrideValue;
+                    if (depth == stack.size()) stack.add(new Frame());
+                    Frame f = stack.get(depth++);
+                    f.v = v;
+                    f.parent = parent;
+                    f.n = n;
+                    f.v_ = v_;
+                    f.children = n.children();
+                    f.next = 0;
+                    f.results = null;
+                    started = true;
+                }
+            }
 
-        IRVisitor v_ = enter(parent, n);
-        if (v_ == null)
-            throw new InternalCompilerError("IRVisitor.enter() returned null!");
+            // Finish every node whose children are all done, then move on
+            // to the next child.
+            while (true) {
+                if (!started) {
+                    // result is the new node for the child just finished.
+                    if (depth == 0) return result;
+                    Frame f = stack.get(depth - 1);
+                    IRNode child = f.children.get(f.next);
+                    if (result != child && f.results == null)
+                        f.results = new ArrayList<>(f.children);
+                    if (f.results != null) f.results.set(f.next, result);
+                    f.next++;
+                }
 
-        IRNode n_ = n.visitChildren(v_);
-        if (n_ == null)
-            throw new InternalCompilerError("IRVisitor.visitChildren() returned null!");
+                Frame f = stack.get(depth - 1);
+                if (f.next < f.children.size()) {
+                    v = f.v_;
+                    parent = f.n;
+                    n = f.children.get(f.next);
+                    break;
+                }
 
-        n_ = leave(parent, n, n_, v_);
-        if (n_ == null)
-            throw new InternalCompilerError("IRVisitor.leave() returned null!");
+                IRNode n_ = f.results == null ? f.n : f.n.reconstruct(f.results);
+                if (n_ == null)
+                    throw new InternalCompilerError("IRVisitor.visitChildren() returned null!");
 
-        return n_;
+                n_ = f.v.leave(f.parent, f.n, n_, f.v_);
+                if (n_ == null)
+                    throw new InternalCompilerError("IRVisitor.leave() returned null!");
+
+                f.v = f.v_ = null;
+                f.parent = f.n = null;
+                f.children = f.results = null;
+                depth--;
+                result = n_;
+                started = false;
+            }
+        }
     }
 
     /**
-     * Recursively traverse the IR subtree rooted at {@code n}
+     * Traverse the IR subtree rooted at {@code n}
      */
     public IRNode visit(IRNode node) {
         return visit(null, node);
@@ -72,7 +139,8 @@ public abstract class IRVisitor {
      * @param n
      *            The original node in the input AST
      * @param n_
-     *            The node returned by {@link IRNode#visitChildren(IRVisitor)}
+     *            The original node, or {@link IRNode#reconstruct(List)} of
+     *            it if traversal changed any of its children
      * @param v_
      *            The new node visitor created by
      *            {@link #enter(IRNode, IRNode)}, or {@code this}.
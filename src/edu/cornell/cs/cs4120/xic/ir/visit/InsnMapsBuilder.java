@@ -1,11 +1,13 @@
 package edu.cornell.cs.cs4120.xic.ir.visit;
 
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
 import edu.cornell.cs.cs4120.util.InternalCompilerError;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
 import edu.cornell.cs.cs4120.xic.ir.IRNode;
 
 public class InsnMapsBuilder extends IRVisitor {
@@ -19,7 +21,8 @@ public class InsnMapsBuilder extends IRVisitor {
     public InsnMapsBuilder() {
         nameToIndex = new HashMap<>();
         indexToInsn = new HashMap<>();
-        insnToIndex = new HashMap<>();
+        // Structurally equal nodes are still different instructions.
+        insnToIndex = new IdentityHashMap<>();
         ctors = new LinkedList<>();
         index = 0;
     }
@@ -53,11 +56,15 @@ public class InsnMapsBuilder extends IRVisitor {
 
     public void addInsn(IRNode n) {
         indexToInsn.put(index, n);
-        if (insnToIndex.containsKey(n))
-            throw new InternalCompilerError("Error - encountered "
-                    + "duplicate node " + n.label()
-                    + " in the IR tree -- go fix the generator.");
-        insnToIndex.put(n, index);
+        if (insnToIndex.containsKey(n)) {
+            // Pure expressions, e.g. from an IRInterner, may be shared; each
+            // occurrence is a separate instruction, indexed by the first.
+            if (!(n instanceof IRExpr && ((IRExpr) n).isPure()))
+                throw new InternalCompilerError("Error - encountered "
+                        + "duplicate node " + n.label()
+                        + " in the IR tree -- go fix the generator.");
+        }
+        else insnToIndex.put(n, index);
         index++;
     }
 
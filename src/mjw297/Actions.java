@@ -1,5 +1,6 @@
 package mjw297;
 
+import java_cup.runtime.Scanner;
 import java_cup.runtime.Symbol;
 
 import javax.swing.text.html.Option;
@@ -79,7 +80,38 @@ public class Actions {
     }
 
     public static Parsed parse(Reader r) {
-        Parser parser = new Parser(new Lexer(r));
+        return parse(new Parser(new Lexer(r)));
+    }
+
+    /**
+     * {@code parse(lexed)} parses tokens that were lexed beforehand, so that
+     * lexing and parsing can be timed apart. A lexical error is raised once
+     * every token before it has been parsed, just as the lexer would have
+     * raised it, so errors are reported the same either way.
+     */
+    public static Parsed parse(Lexed lexed) {
+        return parse(new Parser(replay(lexed)));
+    }
+
+    /** {@code replay(lexed)} hands out the tokens of {@code lexed} in order. */
+    private static Scanner replay(Lexed lexed) {
+        List<Symbol> symbols = lexed.symbols;
+        int[] next = {0};
+        return () -> {
+            if (next[0] < symbols.size()) {
+                return symbols.get(next[0]++);
+            }
+            if (lexed.exception.isPresent()) {
+                throw lexed.exception.get();
+            }
+            // The parser may ask past the end, and rejects a symbol it has
+            // already seen, so hand out fresh copies of EOF.
+            Symbol eof = symbols.get(symbols.size() - 1);
+            return new Symbol(eof.sym, eof.left, eof.right);
+        };
+    }
+
+    private static Parsed parse(Parser parser) {
         try {
             @SuppressWarnings("unchecked")
             Ast.Program<Position> prog = (Ast.Program<Position>) parser.parse().value;
@@ -94,7 +126,15 @@ public class Actions {
     }
 
     public static Parsed parseInterface(Reader r) {
-        InterfaceParser parser = new InterfaceParser(new Lexer(r));
+        return parseInterface(new InterfaceParser(new Lexer(r)));
+    }
+
+    /** {@code parseInterface(lexed)} is {@link #parse(Lexed)} for interfaces. */
+    public static Parsed parseInterface(Lexed lexed) {
+        return parseInterface(new InterfaceParser(replay(lexed)));
+    }
+
+    private static Parsed parseInterface(InterfaceParser parser) {
         try {
             @SuppressWarnings("unchecked")
             Ast.Interface<Position> inter = (Ast.Interface<Position>) parser.parse().value;
@@ -8,6 +8,8 @@ import org.kohsuke.args4j.Option;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
 import java.nio.file.Paths;
 import java.util.*;
 
@@ -21,6 +23,34 @@ public class AstGen {
     @Option(name="-numAst", usage="Number of random ASTs to generate")
     private static Integer numAst = 10;
 
+    /* Workload generation; see WorkloadGen */
+    @Option(name="-workload", usage="Generate type-correct programs shaped by the options below")
+    private static boolean workload = false;
+
+    @Option(name="-xi", usage="Write workloads as Xi source rather than ASTs")
+    private static boolean xi = false;
+
+    @Option(name="-functions", usage="Number of functions per workload")
+    private static int functions = 10;
+
+    @Option(name="-lines", usage="Approximate lines per workload; overrides -functions")
+    private static int lines = 0;
+
+    @Option(name="-statements", usage="Number of statements per function body")
+    private static int statements = 20;
+
+    @Option(name="-depth", usage="Maximum nesting of ifs and whiles")
+    private static int depth = 3;
+
+    @Option(name="-width", usage="Number of operands per expression")
+    private static int width = 4;
+
+    @Option(name="-arrays", usage="Percentage of array statements and operands, from 0 to 100")
+    private static int arrays = 50;
+
+    @Option(name="-seed", usage="Seed of the first workload; workload i uses seed + i")
+    private static long seed = 0;
+
     private static final Random rand = new Random();
     private static final Position dummyPos = new Position(-1, -1);
 
@@ -303,6 +333,11 @@ public class AstGen {
                 Files.simplifyPath(Paths.get(".").toAbsolutePath().toString()) :
                 Files.simplifyPath(outDir);
 
+        if (workload) {
+            doWorkloads(dirPath);
+            return;
+        }
+
         for (int i = 0; i < numAst; i++) {
             File outFile = Paths.get(
                 String.format("%s/ast%d.ast", dirPath, i)
@@ -315,6 +350,49 @@ public class AstGen {
         }
     }
 
+    static WorkloadGen.Config workloadConfig(long seed) {
+        WorkloadGen.Config config = new WorkloadGen.Config();
+        config.functions = functions;
+        config.lines = lines;
+        config.statements = statements;
+        config.depth = depth;
+        config.width = width;
+        config.arrays = arrays;
+        config.seed = seed;
+        return config;
+    }
+
+    private void doWorkloads(String dirPath) throws FileNotFoundException {
+        for (int i = 0; i < numAst; i++) {
+            String source = new WorkloadGen(workloadConfig(seed + i)).generate();
+            if (xi) {
+                File outFile = Paths.get(
+                    String.format("%s/workload%d.xi", dirPath, i)
+                ).toFile();
+                try (PrintStream ps = new PrintStream(new FileOutputStream(outFile))) {
+                    ps.print(source);
+                }
+                continue;
+            }
+
+            Actions.Parsed parsed = Actions.parse(new StringReader(source));
+            if (!parsed.prog.isPresent()) {
+                throw new IllegalStateException(
+                    "generated workload does not parse: "
+                    + parsed.exception.get().getMessage()
+                );
+            }
+            File outFile = Paths.get(
+                String.format("%s/workload%d.ast", dirPath, i)
+            ).toFile();
+            SExpJaneStreetOut sexpOut = new SExpJaneStreetOut(
+                new FileOutputStream(outFile)
+            );
+            parsed.prog.get().accept(sexpOut);
+            sexpOut.flush();
+        }
+    }
+
     public static void main(String[] args) throws FileNotFoundException, CmdLineException {
         new AstGen().doMain(args);
     }
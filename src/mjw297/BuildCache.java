@@ -0,0 +1,237 @@
+package mjw297;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+/**
+ * A {@code BuildCache} is a content-addressed directory of compiler outputs.
+ * An entry holds the output file and the diagnostics printed for one source
+ * file, and is keyed by a hash of
+ *
+ * <ul>
+ *   <li>the compiler's own class files and the backend binary,</li>
+ *   <li>the mode and optimization flags,</li>
+ *   <li>the source's name and contents, and</li>
+ *   <li>the name and contents of every interface the source uses.</li>
+ * </ul>
+ *
+ * Finding the interfaces a source uses normally takes a parse, so the cache
+ * also records the {@code use}s of every source it has seen, keyed by the
+ * hash of the source alone. A lookup can then compute the full key from file
+ * contents only, without lexing or parsing anything.
+ *
+ * Layout: {@code <dir>/uses/<source hash>} holds one use per line and
+ * {@code <dir>/out/<key>} holds the number of diagnostics, the diagnostics
+ * one per line, and then the contents of the output file.
+ */
+class BuildCache {
+    /** A cached output file along with the diagnostics printed for it. */
+    static class Entry {
+        public final List<String> diagnostics;
+        public final String output;
+
+        Entry(List<String> diagnostics, String output) {
+            this.diagnostics = diagnostics;
+            this.output = output;
+        }
+    }
+
+    private final File usesDir;
+    private final File outDir;
+    private final List<String> config;
+
+    /**
+     * {@code BuildCache(dir, config)} opens the cache in {@code dir}, creating
+     * it if needed. Entries only match lookups made with the same {@code
+     * config}, which should contain everything other than the source and its
+     * interfaces that the output depends on.
+     */
+    BuildCache(String dir, List<String> config) throws IOException {
+        usesDir = new File(dir, "uses");
+        outDir = new File(dir, "out");
+        usesDir.mkdirs();
+        outDir.mkdirs();
+        if (!usesDir.isDirectory() || !outDir.isDirectory()) {
+            throw new IOException("Cannot create build cache in " + dir);
+        }
+        this.config = config;
+    }
+
+    /**
+     * {@code compilerFingerprint()} identifies this compiler by a hash of the
+     * class files or jar it was loaded from, so that rebuilding any part of
+     * the frontend invalidates every entry. It is computed once per JVM.
+     */
+    static String compilerFingerprint() {
+        return CompilerFingerprint.VALUE;
+    }
+
+    private static class CompilerFingerprint {
+        static final String VALUE = compute();
+
+        private static String compute() {
+            try {
+                File root = new File(BuildCache.class.getProtectionDomain()
+                                     .getCodeSource().getLocation().toURI());
+                Hasher h = Hashing.sha256().newHasher();
+                if (root.isDirectory()) {
+                    hashTree(h, root, "");
+                } else {
+                    h.putBytes(hash(root).asBytes());
+                }
+                return h.hash().toString();
+            } catch (IOException | URISyntaxException | RuntimeException e) {
+                // An unknown compiler can't trust any entry, or make any
+                // that a later one would.
+                return UUID.randomUUID().toString();
+            }
+        }
+
+        private static void hashTree(Hasher h, File dir, String prefix)
+            throws IOException {
+            File[] children = dir.listFiles();
+            if (children == null) {
+                throw new IOException("Cannot list " + dir);
+            }
+            Arrays.sort(children);
+            for (File child : children) {
+                String name = prefix + child.getName();
+                if (child.isDirectory()) {
+                    hashTree(h, child, name + "/");
+                } else {
+                    h.putString(name, StandardCharsets.UTF_8).putByte((byte) 0);
+                    h.putBytes(hash(child).asBytes());
+                }
+            }
+        }
+    }
+
+    /** Backend hashes, by path, size and modification time of main.byte */
+    private static final ConcurrentMap<String, String> backendFingerprints =
+        new ConcurrentHashMap<>();
+
+    /**
+     * {@code backendFingerprint(compilerPath)} identifies the backend binary
+     * by a hash of main.byte, so that rebuilding it invalidates every entry.
+     * The hash is kept for as long as the JVM runs, unless main.byte's size
+     * or modification time changes.
+     */
+    static String backendFingerprint(String compilerPath) {
+        File mainByte = new File(new File(compilerPath, "bin"), "main.byte");
+        String stamp = String.format("%s:%d:%d", mainByte.getAbsolutePath(),
+                                     mainByte.length(), mainByte.lastModified());
+        return backendFingerprints.computeIfAbsent(stamp, k -> {
+            try {
+                return hash(mainByte).toString();
+            } catch (IOException e) {
+                return UUID.randomUUID().toString();
+            }
+        });
+    }
+
+    private static HashCode hash(File f) throws IOException {
+        return Files.asByteSource(f).hash(Hashing.sha256());
+    }
+
+    private String key(String filename, File source, List<String> uses,
+                       String libPath) throws IOException {
+        Hasher h = Hashing.sha256().newHasher();
+        for (String c : config) {
+            h.putString(c, StandardCharsets.UTF_8).putByte((byte) 0);
+        }
+        h.putString(filename, StandardCharsets.UTF_8).putByte((byte) 0);
+        h.putBytes(hash(source).asBytes());
+        for (String use : uses) {
+            File inter = Main.XiSource.resolve(libPath, use + ".ixi");
+            if (!inter.isFile()) {
+                return null;
+            }
+            h.putString(use, StandardCharsets.UTF_8).putByte((byte) 0);
+            h.putBytes(hash(inter).asBytes());
+        }
+        return h.hash().toString();
+    }
+
+    /**
+     * {@code lookup(filename, source, libPath)} returns the cached output of
+     * {@code source}, if any. Nothing is parsed.
+     */
+    Optional<Entry> lookup(String filename, File source, String libPath) {
+        try {
+            File usesFile = new File(usesDir, hash(source).toString());
+            if (!usesFile.isFile()) {
+                return Optional.empty();
+            }
+            List<String> uses = Files.readLines(usesFile, StandardCharsets.UTF_8);
+
+            String key = key(filename, source, uses, libPath);
+            File entryFile = key == null ? null : new File(outDir, key);
+            if (entryFile == null || !entryFile.isFile()) {
+                return Optional.empty();
+            }
+
+            String contents = Files.toString(entryFile, StandardCharsets.UTF_8);
+            int newline = contents.indexOf('\n');
+            int count = Integer.parseInt(contents.substring(0, newline));
+            List<String> lines = Splitter.on('\n').limit(count + 2)
+                .splitToList(contents);
+            List<String> diagnostics = new ArrayList<>(lines.subList(1, count + 1));
+            return Optional.of(new Entry(diagnostics, lines.get(count + 1)));
+        } catch (IOException | RuntimeException e) {
+            // A missing or corrupt entry is just a miss
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * {@code store(filename, source, uses, libPath, entry)} records that
+     * compiling {@code source}, which uses {@code uses}, produced {@code
+     * entry}. Failing to write the cache is not an error.
+     */
+    void store(String filename, File source, List<String> uses,
+               String libPath, Entry entry) {
+        try {
+            String key = key(filename, source, uses, libPath);
+            if (key == null) {
+                return;
+            }
+            write(new File(usesDir, hash(source).toString()),
+                  Joiner.on('\n').join(uses) + (uses.isEmpty() ? "" : "\n"));
+
+            StringBuilder sb = new StringBuilder();
+            sb.append(entry.diagnostics.size()).append('\n');
+            entry.diagnostics.forEach(d -> sb.append(d).append('\n'));
+            sb.append(entry.output);
+            write(new File(outDir, key), sb.toString());
+        } catch (IOException e) {
+            System.err.println("warning: cannot write build cache: " + e.getMessage());
+        }
+    }
+
+    /** Write {@code f} atomically, so concurrent compiles never see half of it. */
+    private static void write(File f, String contents) throws IOException {
+        File tmp = File.createTempFile(f.getName(), ".tmp", f.getParentFile());
+        Files.write(contents.getBytes(StandardCharsets.UTF_8), tmp);
+        Path target = f.toPath();
+        java.nio.file.Files.move(tmp.toPath(), target,
+            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,88 @@
+package mjw297;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+/**
+ * A thin client for {@link CompileServer}. It forwards its working directory
+ * and arguments to the server, copies the server's stdout and stderr to its
+ * own, and exits with the server's exit code. It deliberately touches none of
+ * the compiler's classes, so it starts quickly.
+ *
+ * Usage: {@code Client <port file> <xic arguments>}
+ */
+public class Client {
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: Client <port file> <xic arguments>");
+            System.exit(2);
+        }
+
+        // The port file holds the port and, on the next line, the token the
+        // server expects before a request.
+        List<String> lines = Files.readAllLines(Paths.get(args[0]));
+        if (lines.size() < 2) {
+            System.err.println("malformed port file " + args[0]);
+            System.exit(2);
+        }
+        int port = Integer.parseInt(lines.get(0).trim());
+        String token = lines.get(1).trim();
+
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(socket.getOutputStream())
+            );
+            out.write((token + "\n").getBytes(StandardCharsets.US_ASCII));
+            out.writeUTF(Paths.get("").toAbsolutePath().toString());
+            out.writeInt(args.length - 1);
+            for (int i = 1; i < args.length; i++) {
+                out.writeUTF(args[i]);
+            }
+            out.flush();
+
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(socket.getInputStream())
+            );
+            byte[] buf = new byte[8192];
+            while (true) {
+                byte tag;
+                try {
+                    tag = in.readByte();
+                } catch (EOFException e) {
+                    System.err.println("xic server hung up");
+                    System.exit(1);
+                    return;
+                }
+
+                int n = in.readInt();
+                if (tag == CompileServer.EXIT) {
+                    System.out.flush();
+                    System.exit(n);
+                }
+
+                while (n > 0) {
+                    int chunk = in.read(buf, 0, Math.min(n, buf.length));
+                    if (chunk < 0) {
+                        throw new EOFException();
+                    }
+                    if (tag == CompileServer.STDERR) {
+                        System.err.write(buf, 0, chunk);
+                    } else {
+                        System.out.write(buf, 0, chunk);
+                    }
+                    n -= chunk;
+                }
+            }
+        }
+    }
+}
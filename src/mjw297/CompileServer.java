@@ -0,0 +1,248 @@
+package mjw297;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.Permission;
+import java.security.SecureRandom;
+
+/**
+ * A {@code CompileServer} keeps one warm JVM around to run {@code xic}
+ * invocations, so that repeated compiles don't pay for JVM startup, loading
+ * the parser tables, or a cold JIT each time.
+ *
+ * The server listens on a loopback TCP port and writes the port number to a
+ * port file. Java 8 has no Unix domain sockets, so the port file stands in for
+ * the socket path. Requests are handled one at a time, since the compiler's
+ * options and {@code System.out} are global.
+ *
+ * Any local user can connect to a loopback port, so the port file also holds
+ * a random token, on the line after the port, and only its owner can read
+ * it. A connection must send the token and a newline before anything else;
+ * one that doesn't is closed unanswered. A request is then the client's
+ * working directory followed by its arguments:
+ *
+ *     UTF cwd, int argc, UTF arg_1, ..., UTF arg_argc
+ *
+ * and the response is a sequence of frames, each a tag byte followed by an
+ * int: {@code 'O'} and {@code 'E'} frames carry that many bytes of stdout and
+ * stderr, and a final {@code 'X'} frame carries the exit code. Output files
+ * are written straight to disk by the server; the client and server share a
+ * filesystem.
+ */
+class CompileServer {
+    static final byte STDOUT = 'O';
+    static final byte STDERR = 'E';
+    static final byte EXIT = 'X';
+
+    /** How long a new connection has to send the token, in milliseconds. */
+    private static final int AUTH_TIMEOUT = 5000;
+
+    /** Thrown in place of exiting the JVM while a request is running. */
+    @SuppressWarnings("serial")
+    private static class ExitException extends SecurityException {
+        final int status;
+
+        ExitException(int status) {
+            super("exit " + status);
+            this.status = status;
+        }
+    }
+
+    /** Turns {@code System.exit} into an {@code ExitException} during requests. */
+    private static class ExitTrap extends SecurityManager {
+        volatile boolean inRequest = false;
+
+        @Override
+        public void checkExit(int status) {
+            if (inRequest) {
+                throw new ExitException(status);
+            }
+        }
+
+        @Override
+        public void checkPermission(Permission perm) {
+        }
+
+        @Override
+        public void checkPermission(Permission perm, Object context) {
+        }
+    }
+
+    /** Wraps everything written to it in frames with the given tag. */
+    private static class FrameOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte tag;
+
+        FrameOutputStream(DataOutputStream out, byte tag) {
+            this.out = out;
+            this.tag = tag;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            synchronized (out) {
+                out.writeByte(tag);
+                out.writeInt(len);
+                out.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (out) {
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * {@code serve(portFile)} answers requests forever, advertising its port
+     * in {@code portFile}.
+     */
+    static void serve(String portFile) {
+        ExitTrap trap = new ExitTrap();
+        System.setSecurityManager(trap);
+        PrintStream stdout = System.out;
+        PrintStream stderr = System.err;
+
+        try (ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress())) {
+            String token = newToken();
+            Path f = Paths.get(portFile);
+            Files.deleteIfExists(f);
+            Files.createFile(f, PosixFilePermissions.asFileAttribute(
+                PosixFilePermissions.fromString("rw-------")
+            ));
+            Files.write(
+                f, (server.getLocalPort() + "\n" + token + "\n").getBytes()
+            );
+            f.toFile().deleteOnExit();
+            stdout.println(String.format(
+                "xic server listening on port %d", server.getLocalPort()
+            ));
+
+            while (true) {
+                try (Socket client = server.accept()) {
+                    DataInputStream in = new DataInputStream(
+                        new BufferedInputStream(client.getInputStream())
+                    );
+                    DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(client.getOutputStream())
+                    );
+
+                    client.setSoTimeout(AUTH_TIMEOUT);
+                    if (!authenticate(in, token)) {
+                        stderr.println("xic server: rejected a connection without the token");
+                        continue;
+                    }
+                    client.setSoTimeout(0);
+
+                    String cwd = in.readUTF();
+                    String[] args = new String[in.readInt()];
+                    for (int i = 0; i < args.length; i++) {
+                        args[i] = in.readUTF();
+                    }
+
+                    System.setOut(new PrintStream(new FrameOutputStream(out, STDOUT), true));
+                    System.setErr(new PrintStream(new FrameOutputStream(out, STDERR), true));
+                    int status = 0;
+                    trap.inRequest = true;
+                    try {
+                        Main.runRequest(cwd, args);
+                    } catch (ExitException e) {
+                        status = e.status;
+                    } catch (RuntimeException e) {
+                        // Exits from other threads surface wrapped on join
+                        status = exitStatus(e);
+                        if (status < 0) {
+                            e.printStackTrace();
+                            status = 1;
+                        }
+                    } finally {
+                        trap.inRequest = false;
+                        System.out.flush();
+                        System.err.flush();
+                        System.setOut(stdout);
+                        System.setErr(stderr);
+                    }
+
+                    synchronized (out) {
+                        out.writeByte(EXIT);
+                        out.writeInt(status);
+                        out.flush();
+                    }
+                } catch (IOException e) {
+                    stderr.println("xic server: " + e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            stderr.println("xic server: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    /** A random hex token that clients must present. */
+    private static String newToken() {
+        byte[] bytes = new byte[32];
+        new SecureRandom().nextBytes(bytes);
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * {@code authenticate(in, token)} reads the first line of a connection and
+     * checks that it is {@code token}. It reads no further than a line that
+     * long could run, so a client can't make it buffer an arbitrary amount.
+     */
+    private static boolean authenticate(DataInputStream in, String token)
+        throws IOException {
+        byte[] expected = token.getBytes(StandardCharsets.US_ASCII);
+        byte[] line = new byte[expected.length];
+        int n = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                return false;
+            }
+            if (b == '\n') {
+                break;
+            }
+            if (n == line.length) {
+                return false;
+            }
+            line[n++] = (byte) b;
+        }
+        return n == expected.length && MessageDigest.isEqual(line, expected);
+    }
+
+    /** The status of the ExitException that caused e, or -1 if none did. */
+    private static int exitStatus(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof ExitException) {
+                return ((ExitException) t).status;
+            }
+        }
+        return -1;
+    }
+}
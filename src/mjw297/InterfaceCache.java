@@ -0,0 +1,71 @@
+package mjw297;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinTask;
+
+import lombok.AllArgsConstructor;
+import lombok.EqualsAndHashCode;
+
+import mjw297.Actions.Lexed;
+import mjw297.Actions.Parsed;
+
+/**
+ * An {@code InterfaceCache} parses every interface file at most once per
+ * compile, however many programs use it. Files are keyed by canonical path,
+ * modification time and size, so an interface that changes on disk midway is
+ * parsed again. The resulting {@code Interface<Position>}s are immutable and
+ * are shared by every program that uses them.
+ */
+class InterfaceCache {
+    @AllArgsConstructor
+    @EqualsAndHashCode
+    private static class Key {
+        final String path;
+        final long modified;
+        final long size;
+    }
+
+    private final ConcurrentMap<Key, ForkJoinTask<Parsed>> parses;
+    private final PhaseTimer timer;
+
+    InterfaceCache(PhaseTimer timer) {
+        parses = new ConcurrentHashMap<>();
+        this.timer = timer;
+    }
+
+    /**
+     * {@code parse(f)} returns the parse of interface {@code f}, forking it
+     * off as a task the first time {@code f} is asked for. Must be called
+     * from within a {@code ForkJoinPool}.
+     */
+    ForkJoinTask<Parsed> parse(File f) {
+        Key key;
+        try {
+            key = new Key(f.getCanonicalPath(), f.lastModified(), f.length());
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.exit(1);
+            return null;
+        }
+
+        return parses.computeIfAbsent(key, k -> ForkJoinTask.adapt(() -> {
+            try (FileReader reader = new FileReader(f)) {
+                if (!timer.enabled()) {
+                    return Actions.parseInterface(reader);
+                }
+                Lexed lexed = timer.time(f.getPath(), "lex", () -> Actions.lex(reader));
+                return timer.time(f.getPath(), "parse",
+                    () -> Actions.parseInterface(lexed));
+            } catch (FileNotFoundException e) {
+                e.printStackTrace();
+                System.exit(1);
+                return null;
+            }
+        }).fork());
+    }
+}
@@ -0,0 +1,164 @@
+package mjw297;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
+
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator;
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator.Trap;
+
+/**
+ * Runs the {@code main} function of every {@code .ir} file in a directory,
+ * several at a time in one JVM, and compares what each one prints with the
+ * file's expected output. {@code foo.ir} reads its input from {@code foo.in},
+ * if there is one, and is expected to print exactly {@code foo.expected}. A
+ * program that traps is expected to print {@code trap: } and the trap's
+ * message on a line of its own after its output.
+ */
+public class IrBatch {
+    @Option(name="-engine", usage="Engine to run the IR with: simulator, closure or bytecode")
+    private static String engine = "simulator";
+
+    @Option(name="-Xheap", usage="Heap size in bytes, e.g. 64m or 2g")
+    private static String heap = null;
+
+    @Option(name="-j", usage="Number of programs to run at once")
+    private static int threads = Runtime.getRuntime().availableProcessors();
+
+    @Argument
+    private static List<String> arguments = new ArrayList<>();
+
+    /** The outcome of running one program. */
+    static class Result {
+        final Path file;
+        final boolean passed;
+        final String message;
+
+        Result(Path file, boolean passed, String message) {
+            this.file = file;
+            this.passed = passed;
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return (passed ? "PASS " : "FAIL ") + file.getFileName()
+                + (message == null ? "" : ": " + message);
+        }
+    }
+
+    /**
+     * {@code run(file, engine, heapSize)} runs {@code file} with {@code
+     * engine} and a heap of {@code heapSize} words, and compares its output
+     * with its expected output.
+     */
+    static Result run(Path file, String engine, int heapSize) {
+        String base = file.toString().replaceFirst("\\.ir$", "");
+        Path input = Paths.get(base + ".in");
+        Path expected = Paths.get(base + ".expected");
+        try {
+            if (!Files.exists(expected))
+                return new Result(file, false, "no " + expected.getFileName());
+            byte[] in = Files.exists(input) ? Files.readAllBytes(input) : new byte[0];
+
+            IRCompUnit compUnit = IrInterpreter.load(file);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            PrintStream out = new PrintStream(bytes, true, "UTF-8");
+            IRSimulator sim = IrInterpreter.simulator(engine, compUnit, heapSize,
+                                                      new ByteArrayInputStream(in), out);
+            try {
+                sim.call("_Imain_paai", 0l);
+            } catch (Trap e) {
+                out.println("trap: " + e.getMessage());
+            }
+            out.flush();
+
+            String actual = new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+            String wanted = new String(Files.readAllBytes(expected), StandardCharsets.UTF_8);
+            return actual.equals(wanted)
+                ? new Result(file, true, null)
+                : new Result(file, false, difference(wanted, actual));
+        } catch (Exception | StackOverflowError e) {
+            return new Result(file, false, e.toString());
+        }
+    }
+
+    /** Describe the first line where {@code actual} differs from {@code wanted}. */
+    private static String difference(String wanted, String actual) {
+        String[] w = wanted.split("\n", -1);
+        String[] a = actual.split("\n", -1);
+        int line = 0;
+        while (line < w.length && line < a.length && w[line].equals(a[line]))
+            line++;
+        return String.format("line %d: expected \"%s\", got \"%s\"", line + 1,
+            line < w.length ? w[line] : "<end of output>",
+            line < a.length ? a[line] : "<end of output>");
+    }
+
+    /** The {@code .ir} files in {@code dir}, in name order. */
+    static List<Path> programs(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.ir")) {
+            for (Path file : stream)
+                files.add(file);
+        }
+        files.sort(null);
+        return files;
+    }
+
+    public static void main(String[] args) throws Exception {
+        try {
+            new CmdLineParser(new IrBatch()).parseArgument(args);
+        } catch (CmdLineException e) {
+            arguments.clear();
+        }
+        int heapSize = heap == null
+            ? IRSimulator.DEFAULT_HEAP_SIZE : IrInterpreter.heapWords(heap);
+        if (arguments.size() != 1 || !Arrays.asList(IrInterpreter.ENGINES).contains(engine)
+                || heapSize < 0 || threads < 1)  {
+            System.err.println("usage: ./irbatch [-engine simulator|closure|bytecode] "
+                + "[-Xheap size] [-j threads] dir");
+            System.exit(-1);
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<Result>> results = new ArrayList<>();
+        for (Path file : programs(Paths.get(arguments.get(0))))
+            results.add(pool.submit(() -> run(file, engine, heapSize)));
+        pool.shutdown();
+
+        int passed = 0;
+        for (Future<Result> future : results) {
+            Result result;
+            try {
+                result = future.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+            System.out.println(result);
+            if (result.passed) passed++;
+        }
+        System.out.printf("%d of %d passed%n", passed, results.size());
+        System.exit(passed == results.size() ? 0 : 1);
+    }
+}
@@ -1,23 +1,146 @@
 package mjw297;
 
-import java.io.FileReader;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.kohsuke.args4j.Option;
 
 import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.interpret.BytecodeSimulator;
+import edu.cornell.cs.cs4120.xic.ir.interpret.ClosureSimulator;
+import edu.cornell.cs.cs4120.xic.ir.interpret.Collector;
+import edu.cornell.cs.cs4120.xic.ir.interpret.Configuration;
 import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator;
-import edu.cornell.cs.cs4120.xic.ir.parse.IRLexer;
-import edu.cornell.cs.cs4120.xic.ir.parse.IRParser;
+import edu.cornell.cs.cs4120.xic.ir.interpret.Profiler;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRBinary;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRReader;
 
 public class IrInterpreter {
+    /** The names of the engines {@code -engine} accepts. */
+    static final String[] ENGINES = {"simulator", "closure", "bytecode"};
+
+    @Option(name="-engine", usage="Engine to run the IR with: simulator, closure or bytecode")
+    private static String engine = "simulator";
+
+    @Option(name="-Xheap", usage="Heap size in bytes, e.g. 64m or 2g")
+    private static String heap = null;
+
+    @Option(name="-gc", usage="Reclaim unreachable memory")
+    private static boolean gc = false;
+
+    @Option(name="-gcstats", usage="Reclaim unreachable memory, and print statistics on exit")
+    private static boolean gcStats = false;
+
+    @Option(name="-profile", usage="Count the IR nodes executed, print a flat "
+            + "profile and write folded stacks to the given file")
+    private static String profile = null;
+
+    @Option(name="-write-binary", usage="Write the IR in binary form to the "
+            + "given file instead of running it")
+    private static String writeBinary = null;
+
+    @Argument
+    private static List<String> arguments = new ArrayList<>();
+
+    /**
+     * {@code simulator(engine, compUnit, heapSize, in, out)} returns an
+     * interpreter of {@code compUnit} that uses {@code engine}, one of {@link
+     * #ENGINES}, has a heap of {@code heapSize} words, and reads from {@code
+     * in} and writes to {@code out}.
+     */
+    static IRSimulator simulator(String engine, IRCompUnit compUnit, int heapSize,
+                                 InputStream in, PrintStream out) {
+        switch (engine) {
+            case "simulator": return new IRSimulator(compUnit, heapSize, in, out);
+            case "closure":   return new ClosureSimulator(compUnit, heapSize, in, out);
+            case "bytecode":  return new BytecodeSimulator(compUnit, heapSize, in, out);
+            default: throw new IllegalArgumentException("unknown engine " + engine);
+        }
+    }
+
+    static IRSimulator simulator(String engine, IRCompUnit compUnit, int heapSize) {
+        return simulator(engine, compUnit, heapSize, System.in, System.out);
+    }
+
+    static IRSimulator simulator(String engine, IRCompUnit compUnit) {
+        return simulator(engine, compUnit, IRSimulator.DEFAULT_HEAP_SIZE);
+    }
+
+    /**
+     * {@code load(file)} reads the compilation unit in {@code file}, which
+     * holds either S-expressions or binary IR as {@link IRBinary} writes it.
+     */
+    static IRCompUnit load(Path file) throws Exception {
+        if (IRBinary.isBinary(file))
+            return (IRCompUnit) IRBinary.read(file);
+        return IRReader.read(file);
+    }
+
+    /**
+     * {@code heapWords(size)} parses a size in bytes with an optional {@code
+     * k}, {@code m} or {@code g} suffix, as the JVM's {@code -Xmx} does, and
+     * returns it in words. It returns -1 if {@code size} is malformed or not a
+     * positive number of words that fits in an int.
+     */
+    static int heapWords(String size) {
+        Matcher m = Pattern.compile("(\\d+)([kKmMgG]?)").matcher(size);
+        if (!m.matches()) return -1;
+        long bytes;
+        try {
+            bytes = Long.parseLong(m.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        int shift = m.group(2).isEmpty() ? 0
+            : 10 * ("kmg".indexOf(Character.toLowerCase(m.group(2).charAt(0))) + 1);
+        if (bytes > Long.MAX_VALUE >> shift) return -1;
+        long words = (bytes << shift) / Configuration.WORD_SIZE;
+        return words > 0 && words <= Integer.MAX_VALUE ? (int) words : -1;
+    }
+
     public static void main(String[] args) throws Exception {
-        if (args.length != 1)  {
-            System.err.println("usage: ./ir ir_file");
+        try {
+            new CmdLineParser(new IrInterpreter()).parseArgument(args);
+        } catch (CmdLineException e) {
+            arguments.clear();
+        }
+        int heapSize = heap == null ? IRSimulator.DEFAULT_HEAP_SIZE : heapWords(heap);
+        if (arguments.size() != 1 || !Arrays.asList(ENGINES).contains(engine)
+                || heapSize < 0)  {
+            System.err.println("usage: ./ir [-engine simulator|closure|bytecode] "
+                + "[-Xheap size] [-gc] [-gcstats] [-profile file] "
+                + "[-write-binary file] ir_file");
             System.exit(-1);
         }
 
-        String filename = args[0];
-        IRLexer lexer = new IRLexer(new FileReader(filename));
-        IRParser parser = new IRParser(lexer);
-        IRSimulator sim = new IRSimulator((IRCompUnit) parser.parse().value);
-        sim.call("_Imain_paai", 0l);
+        IRCompUnit compUnit = load(Paths.get(arguments.get(0)));
+        if (writeBinary != null) {
+            IRBinary.write(compUnit, Paths.get(writeBinary));
+            return;
+        }
+        IRSimulator sim = simulator(engine, compUnit, heapSize);
+        Collector collector = gc || gcStats ? sim.enableCollector() : null;
+        Profiler profiler = profile != null ? sim.enableProfiler() : null;
+        try {
+            sim.call("_Imain_paai", 0l);
+        } finally {
+            if (gcStats) System.err.println(collector);
+            if (profiler != null) {
+                profiler.writeFlatProfile(System.err);
+                try (PrintStream out = new PrintStream(profile)) {
+                    profiler.writeFoldedStacks(out);
+                }
+            }
+        }
     }
 }
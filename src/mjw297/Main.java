@@ -2,6 +2,7 @@ package mjw297;
 
 import static com.google.common.collect.Iterables.any;
 
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -9,14 +10,26 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import org.kohsuke.args4j.Argument;
@@ -25,6 +38,7 @@ import org.kohsuke.args4j.CmdLineParser;
 import org.kohsuke.args4j.Option;
 
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import java_cup.runtime.Symbol;
@@ -41,7 +55,6 @@ import mjw297.Main.XiSource;
 import mjw297.Util.Either;
 import mjw297.Util.Tuple;
 import mjw297.XicException.ErrorType;
-import mjw297.XicException.XiUseException;
 
 /** The main compiler frontend/CLI interface to the compiler. */
 public class Main {
@@ -67,6 +80,18 @@ public class Main {
     private static String assemblyPath = "";
     @Option(name = "-target", usage = "Define target OS; only linux is a valid option. Defaults to linux")
     private static String targetOS = "linux";
+    @Option(name = "-backendworkers", usage = "Compile through this many persistent backend processes")
+    private static int backendWorkers = 0;
+    @Option(name = "-streamasts", usage = "Pipe ASTs to the backend instead of writing them to disk first")
+    private static boolean streamAsts = false;
+    @Option(name = "-cache", usage = "Reuse the outputs of unchanged sources from this build cache directory")
+    private static String cacheDir = "";
+    @Option(name = "--server", metaVar = "PORTFILE", usage = "Serve compiles from a warm JVM; the port is written to PORTFILE")
+    private static String serverPortFile = null;
+    @Option(name = "-frontendthreads", usage = "Number of threads used to lex and parse. Defaults to the number of cores")
+    private static int frontendThreads = Runtime.getRuntime().availableProcessors();
+    @Option(name = "--time-phases", usage = "Write the time and memory each phase took on each file to phases.json")
+    private static boolean timePhases = false;
 
     /* Compiler modes */
     @Option(name = "--lex", usage = "Generate output from lexical analysis; .lexed files")
@@ -162,8 +187,29 @@ public class Main {
     @Argument(usage = "Other non-optional arguments.", hidden = true)
     private static List<String> arguments = new ArrayList<String>();
 
+    /* Started on first use when -backendworkers is positive */
+    private static OCamlBackend backend;
+
+    /* Working directory of the current compile; "" is the JVM's own */
+    private static String workingDir = "";
+
+    /* Whether this JVM is a compile server, which outlives each compile */
+    private static boolean serving = false;
+
+    /* Default value of every option, for resetting them between requests */
+    private static Map<Field, Object> optionDefaults;
+
     private CmdLineParser parser;
 
+    /* Interfaces parsed so far by the current fullParse */
+    private InterfaceCache interfaceCache;
+
+    /* Per-file, per-phase costs, recorded when --time-phases is given */
+    private PhaseTimer timer = new PhaseTimer(false);
+
+    /* Whether a backend job failed without an answer, so xic exits with 1 */
+    private boolean backendFailed = false;
+
     public Main() {
         this.parser = new CmdLineParser(this);
     }
@@ -196,16 +242,23 @@ public class Main {
                    );
         }
 
-        static XiSource create(String baseDir, String filename) {
+        /**
+         * Resolve filename against baseDir, unless it is already absolute.
+         */
+        static File resolve(String baseDir, String filename) {
             String ext = Files.getFileExtension(filename);
             if (!(ext.equals("xi") || ext.equals("ixi"))) {
                 System.out.println("Valid Xi files must have .xi or .ixi extension");
                 System.exit(1);
             }
+            return Paths.get(filename).isAbsolute() ?
+                Paths.get(filename).toFile() :
+                inWorkingDir(baseDir, filename).toFile();
+        }
+
+        static XiSource create(String baseDir, String filename) {
+            File f = resolve(baseDir, filename);
             try {
-                File f = Paths.get(filename).isAbsolute() ?
-                    Paths.get(filename).toFile() :
-                    Paths.get(baseDir, filename).toFile();
                 return new XiSource(filename, f, new FileReader(f));
             } catch (FileNotFoundException e) {
                 e.printStackTrace();
@@ -229,11 +282,31 @@ public class Main {
         static List<XiSource> createMany(List<String> filenames) {
             return createMany(sourcePath, filenames);
         }
+
+        /**
+         * Close the source's reader once it has been read; a compile server
+         * would otherwise leak a file descriptor per source per request.
+         */
+        void close() {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                // Nothing more will be read from it.
+            }
+        }
     }
 
     ////////////////////////////////////////////////////////////////////////////
     // helpers
     ////////////////////////////////////////////////////////////////////////////
+    /**
+     * Resolve a path against the working directory of the current compile.
+     * Only a compile server's requests have one that differs from the JVM's.
+     */
+    private static Path inWorkingDir(String first, String... more) {
+        return Paths.get(workingDir).resolve(Paths.get(first, more));
+    }
+
     /**
      * Helper function to print binary usage info
      */
@@ -242,21 +315,25 @@ public class Main {
         parser.printUsage(System.err);
     }
 
-    private String diagPathOut(XiSource xs, String ext) {
+    private String outPath(String filename) {
         String outPath = assemblyPath.equals("") ?
             diagnosticPath : assemblyPath;
-        return Paths.get(outPath, xs.changeExtension(ext))
+        return inWorkingDir(outPath, filename)
             .toAbsolutePath()
             .toString();
     }
 
+    private String diagPathOut(XiSource xs, String ext) {
+        return outPath(xs.changeExtension(ext));
+    }
+
     private void writeToFile(String filename, String contents) {
         writeToFile(Paths.get(filename).toFile(), contents);
     }
 
     private void writeToFile(File file, String contents) {
         try {
-            Files.write(contents.getBytes(), file);
+            Files.write(contents.getBytes(StandardCharsets.UTF_8), file);
         } catch (IOException e) {
             System.out.println(String.format(
                 "Cannot write to file %s",
@@ -279,12 +356,17 @@ public class Main {
         return null;
     }
 
-    private void printError(String kind, String filename,
-                            String line, String col, String msg) {
-        System.out.println(String.format(
+    private String formatError(String kind, String filename,
+                               String line, String col, String msg) {
+        return String.format(
             "%s error at %s:%s:%s: %s",
             kind, filename, line, col, msg
-        ));
+        );
+    }
+
+    private void printError(String kind, String filename,
+                            String line, String col, String msg) {
+        System.out.println(formatError(kind, filename, line, col, msg));
     }
 
     private void printError(String kind, String filename,
@@ -292,74 +374,108 @@ public class Main {
         printError(kind, filename, "" + line, "" + col, msg);
     }
 
-    void writeParseError(XicException e, String filename, String outputFilename) {
+    private String parseErrorMessage(XicException e, String filename) {
         String kind = e.type == ErrorType.LEXING ? "Lexical" : "Syntactic";
-        printError(
-            kind, filename, e.row, e.column, e.getMessage()
+        return formatError(
+            kind, filename, "" + e.row, "" + e.column, e.getMessage()
         );
-        writeToFile(outputFilename, String.format(
-            "%d:%d %s", e.row, e.column, e.getMessage()
-        ));
     }
 
-    private Tuple<
-                List<Tuple<XiSource, XicException>>,
-                List<Tuple<XiSource, FullProgram<Position>>>
-            > fullParse(List<String> filenames) {
+    private String parseErrorOutput(XicException e) {
+        return String.format("%d:%d %s", e.row, e.column, e.getMessage());
+    }
 
-        List<XiSource> sources = XiSource.createMany(filenames);
+    void writeParseError(XicException e, String filename, String outputFilename) {
+        System.out.println(parseErrorMessage(e, filename));
+        writeToFile(outputFilename, parseErrorOutput(e));
+    }
 
-        List<Tuple<Parsed, XiSource>> parsedList = Lists.transform(sources,
-            xs -> Tuple.of(Actions.parse(xs.reader), xs)
-        );
+    /**
+     * fullParseOne(source) parses source along with every interface it uses.
+     * It runs as a task on the frontend pool; interfaces come from the
+     * interface cache, which forks each one off as a task of its own.
+     */
+    private Either<FullProgram<Position>, XicException> fullParseOne(XiSource source) {
+        // Lexing is only timed apart from parsing when phases are timed, as
+        // that takes holding every token of the file at once.
+        Parsed parsed;
+        if (timer.enabled()) {
+            Lexed lexed = timer.time(source.filename, "lex",
+                () -> Actions.lex(source.reader));
+            parsed = timer.time(source.filename, "parse",
+                () -> Actions.parse(lexed));
+        } else {
+            parsed = Actions.parse(source.reader);
+        }
+        source.close();
+        if (!parsed.prog.isPresent()) {
+            return Either.right(parsed.exception.get());
+        }
+        return resolveInterfaces(source, parsed.prog.get());
+    }
 
-        List<Tuple<XiSource, Either<FullProgram<Position>, XicException>>> resultList;
-        resultList = Lists.transform(parsedList, (Tuple<Parsed, XiSource> p) -> {
-            Parsed parsed = p.fst;
-            XiSource source = p.snd;
+    /**
+     * resolveInterfaces(source, prog) waits for the interfaces prog uses and
+     * bundles them with it. Interface parses are timed on their own, and a
+     * join may run other files' parses on this thread while it waits, so the
+     * time spent in joins is left out of the "interfaces" phase.
+     */
+    private Either<FullProgram<Position>, XicException> resolveInterfaces(
+            XiSource source, Program<Position> prog) {
+        PhaseTimer.Stopwatch sw = new PhaseTimer.Stopwatch();
+        PhaseTimer.Measurement joined = PhaseTimer.Measurement.ZERO;
+        List<ForkJoinTask<Parsed>> useTasks = new ArrayList<>();
+        for (Use<Position> use : prog.uses) {
+            File useFile = XiSource.resolve(libPath, use.x.x + ".ixi");
+            useTasks.add(interfaceCache.parse(useFile));
+        }
 
-            if (!parsed.prog.isPresent()) {
-                return Tuple.of(source, Either.right(parsed.exception.get()));
+        List<Interface<Position>> interfaces = new ArrayList<>();
+        for (Tuple<Use<Position>, ForkJoinTask<Parsed>> t : Util.zip(prog.uses, useTasks)) {
+            PhaseTimer.Stopwatch join = new PhaseTimer.Stopwatch();
+            Parsed inter = t.snd.join();
+            joined = joined.plus(join.stop());
+            if (inter.inter.isPresent()) {
+                interfaces.add(inter.inter.get());
             } else {
-                Program<Position> prog = parsed.prog.get();
+                timer.record(source.filename, "interfaces", sw.stop().minus(joined));
+                return Either.right(new XicException.XiUseException(
+                    t.fst.x.x,
+                    t.fst.a.row,
+                    t.fst.a.col,
+                    inter.exception.get().getMessage()
+                ));
+            }
+        }
+        timer.record(source.filename, "interfaces", sw.stop().minus(joined));
+        return Either.left(FullProgram.of(prog.a, source.filename, prog, interfaces));
+    }
 
-                List<Tuple<Use<Position>, XiSource>> useFiles = Util.zip(
-                    prog.uses,
-                    XiSource.createMany(
-                        libPath,
-                        Lists.transform(prog.uses, u -> u.x.x + ".ixi")
-                    )
-                );
+    private Tuple<
+                List<Tuple<XiSource, XicException>>,
+                List<Tuple<XiSource, FullProgram<Position>>>
+            > fullParse(List<String> filenames) {
 
-                List<Tuple<Use<Position>, Parsed>> parsedUseFiles = Lists.transform(useFiles,
-                    u -> Tuple.of(u.fst, Actions.parseInterface(u.snd.reader))
-                );
+        List<XiSource> sources = XiSource.createMany(filenames);
+        interfaceCache = new InterfaceCache(timer);
+
+        // Every source is lexed and parsed on the work-stealing pool, but the
+        // results are collected in source order so that errors are reported
+        // in the same order no matter how the work was scheduled.
+        ForkJoinPool pool = new ForkJoinPool(frontendThreads);
+        List<ForkJoinTask<Either<FullProgram<Position>, XicException>>> tasks =
+            new ArrayList<>();
+        for (XiSource source : sources) {
+            tasks.add(pool.submit(() -> fullParseOne(source)));
+        }
 
-                Optional<XiUseException> useError = Optional.empty();
-                List<Interface<Position>> interfaces = new ArrayList<>();
-                for (Tuple<Use<Position>, Parsed> t : parsedUseFiles) {
-                    if (t.snd.inter.isPresent()) {
-                        interfaces.add(t.snd.inter.get());
-                    } else {
-                        useError = Optional.of(new XicException.XiUseException(
-                            t.fst.x.x,
-                            t.fst.a.row,
-                            t.fst.a.col,
-                            t.snd.exception.get().getMessage()
-                        ));
-                        break;
-                    }
-                }
-                if (useError.isPresent()) {
-                    return Tuple.of(source, Either.right(useError.get()));
-                } else {
-                    return Tuple.of(
-                        source,
-                        Either.left(FullProgram.of(prog.a, source.filename, prog, interfaces))
-                    );
-                }
-            }
-        });
+        List<Tuple<XiSource, Either<FullProgram<Position>, XicException>>> resultList;
+        resultList = new ArrayList<>();
+        for (Tuple<XiSource, ForkJoinTask<Either<FullProgram<Position>, XicException>>> t :
+                 Util.zip(sources, tasks)) {
+            resultList.add(Tuple.of(t.fst, t.snd.join()));
+        }
+        pool.shutdown();
 
         List<Tuple<XiSource, XicException>> errors = new ArrayList<>();
         List<Tuple<XiSource, FullProgram<Position>>> programs = new ArrayList<>();
@@ -381,55 +497,184 @@ public class Main {
      *  returns List<Tuple<source, stdout>> */
     public void callOCaml(List<String> filenames, List<String> binArgs,
                           String extension) {
+        // Sources restored from the build cache never reach the lexer, the
+        // parser or the backend. The optir and optcfg modes write several
+        // files per source and are never cached.
+        BuildCache cache = null;
+        List<String> misses = filenames;
+        if (!cacheDir.equals("") && optIr == null && optCfg == null) {
+            cache = openBuildCache(binArgs, extension);
+            misses = new ArrayList<>();
+            for (String filename : filenames) {
+                // A hit never reads the source, so it gets no reader.
+                XiSource xs = new XiSource(filename,
+                    XiSource.resolve(sourcePath, filename), null);
+                BuildCache c = cache;
+                Optional<BuildCache.Entry> entry = timer.time(xs.filename, "cache",
+                    () -> c.lookup(xs.filename, xs.file, libPath));
+                if (entry.isPresent()) {
+                    entry.get().diagnostics.forEach(System.out::println);
+                    timer.time(xs.filename, "write", () ->
+                        writeToFile(diagPathOut(xs, extension), entry.get().output));
+                } else {
+                    misses.add(filename);
+                }
+            }
+        }
+
         Tuple<
             List<Tuple<XiSource, XicException>>,
             List<Tuple<XiSource, FullProgram<Position>>>
-        > fullyParsed = fullParse(filenames);
+        > fullyParsed = fullParse(misses);
 
         List<Tuple<XiSource, XicException>> errors = fullyParsed.fst;
-        errors.forEach(t -> {
-            writeParseError(t.snd, t.fst.filename, diagPathOut(t.fst, extension));
-        });
+        for (Tuple<XiSource, XicException> t : errors) {
+            timer.time(t.fst.filename, "write", () ->
+                writeParseError(t.snd, t.fst.filename, diagPathOut(t.fst, extension)));
+
+            // Lexical and syntactic errors depend on the source alone, but use
+            // errors also depend on interfaces we can't name without a parse.
+            if (cache != null && !(t.snd instanceof XicException.XiUseException)) {
+                cache.store(t.fst.filename, t.fst.file, new ArrayList<>(), libPath,
+                    new BuildCache.Entry(
+                        Util.singleton(parseErrorMessage(t.snd, t.fst.filename)),
+                        parseErrorOutput(t.snd)
+                    ));
+            }
+        }
 
         List<Tuple<XiSource, FullProgram<Position>>> programs = fullyParsed.snd;
 
-        if (programs.size() > 0) {
-          binArgs.add("--astfiles");
-          programs.forEach(t -> {
-              XiSource src = t.fst;
-              FullProgram<Position> prog = t.snd;
-
-              // Write file
-              String outputFilename = diagPathOut(src, extension);
-              File outputFile = Paths.get(outputFilename).toFile();
-              try {
-                  SExpJaneStreetOut sexpOut
-                      = new SExpJaneStreetOut(new FileOutputStream(outputFile));
-                  sexpOut.visit(prog);
-                  sexpOut.flush();
-              } catch(IOException e) {
-                System.out.println(e.getMessage());
-                e.printStackTrace();
-                System.exit(1);
-              }
+        List<String> jobSources = Lists.transform(programs, t -> t.fst.filename);
+        List<String> astFiles = new ArrayList<>();
+        List<FullProgram<Position>> asts = new ArrayList<>();
+        programs.forEach(t -> {
+            XiSource src = t.fst;
+            FullProgram<Position> prog = t.snd;
+            String outputFilename = diagPathOut(src, extension);
+
+            if (streamAsts) {
+                // The AST is piped to OCaml; the file only names the output
+                asts.add(prog);
+            } else {
+                // Write file
+                File outputFile = Paths.get(outputFilename).toFile();
+                timer.time(src.filename, "emit", () -> {
+                    try {
+                        SExpJaneStreetOut sexpOut
+                            = new SExpJaneStreetOut(new FileOutputStream(outputFile));
+                        sexpOut.visit(prog);
+                        sexpOut.flush();
+                    } catch(IOException e) {
+                      System.out.println(e.getMessage());
+                      e.printStackTrace();
+                      System.exit(1);
+                    }
+                });
+            }
 
-              // Pass filename to OCaml
-              binArgs.add(outputFilename);
-          });
+            // Pass filename to OCaml
+            astFiles.add(outputFilename);
+        });
+
+        if (streamAsts) {
+            binArgs.add("--stdin-asts");
+        }
+
+        if (cache != null) {
+            // Caching needs each file's diagnostics on their own, which only
+            // the persistent backend reports.
+            List<OCamlBackend.Result> results =
+                runBackendPooled(binArgs, jobSources, astFiles, asts);
+            for (int i = 0; i < programs.size(); i++) {
+                OCamlBackend.Result result = results.get(i);
+                if (result.error.isPresent()) {
+                    continue;
+                }
+                XiSource src = programs.get(i).fst;
+                Program<Position> prog = programs.get(i).snd.prog;
+                try {
+                    String output = Files.toString(
+                        Paths.get(astFiles.get(i)).toFile(),
+                        StandardCharsets.UTF_8
+                    );
+                    cache.store(src.filename, src.file,
+                        Lists.transform(prog.uses, u -> u.x.x), libPath,
+                        new BuildCache.Entry(result.diagnostics, output));
+                } catch (IOException e) {
+                    // Nothing to cache if the backend wrote no output
+                }
+            }
+        } else if (backendWorkers > 0) {
+            runBackendPooled(binArgs, jobSources, astFiles, asts);
+        } else {
+            if (astFiles.size() > 0) {
+                binArgs.add("--astfiles");
+                binArgs.addAll(astFiles);
+            }
+            runBackendOnce(binArgs, asts);
         }
+    }
 
+    /**
+     * runBackendOnce(binArgs, asts) starts a fresh backend process with
+     * binArgs, pipes asts to its stdin and forwards everything it prints once
+     * it exits.
+     */
+    private void runBackendOnce(List<String> binArgs,
+                                List<FullProgram<Position>> asts) {
         List<String> args = new ArrayList<>();
         args.add("./bin/main.byte");
         args.addAll(binArgs);
 
+        // The backend prints its diagnostics to stdout. A served compile's
+        // System.out goes to the client, so there the output is copied over;
+        // otherwise the backend can write to our own stdout directly.
         ProcessBuilder pb = new ProcessBuilder(args)
-            .directory(Paths.get(compilerPath).toFile())
-            .redirectOutput(ProcessBuilder.Redirect.INHERIT);
+            .directory(Paths.get(compilerPath).toFile());
+        if (!serving) {
+            pb.redirectOutput(ProcessBuilder.Redirect.INHERIT);
+        }
         Process proc = null;
+        Thread copier = null;
 
+        // The backend compiles every file in one go, so its time can't be
+        // split up by file; only the ASTs piped to it are timed one by one,
+        // and left out of the backend's time so no span is counted twice.
+        PhaseTimer.Stopwatch sw = new PhaseTimer.Stopwatch();
+        PhaseTimer.Measurement emitted = PhaseTimer.Measurement.ZERO;
         try {
             proc = pb.start();
+            if (serving) {
+                InputStream backendOut = proc.getInputStream();
+                PrintStream out = System.out;
+                copier = new Thread(() -> {
+                    try {
+                        ByteStreams.copy(backendOut, out);
+                    } catch (IOException e) {
+                        // The backend exited; whatever it printed was copied
+                    }
+                    out.flush();
+                });
+                copier.start();
+            }
+            OutputStream stdIn = new BufferedOutputStream(proc.getOutputStream());
+            for (FullProgram<Position> ast : asts) {
+                PhaseTimer.Stopwatch emit = new PhaseTimer.Stopwatch();
+                SExpJaneStreetOut sexpOut = new SExpJaneStreetOut(stdIn);
+                sexpOut.visit(ast);
+                sexpOut.flush();
+                stdIn.write('\n');
+                PhaseTimer.Measurement m = emit.stop();
+                timer.record(ast.progname, "emit", m);
+                emitted = emitted.plus(m);
+            }
+            stdIn.close();
             proc.waitFor();
+            if (copier != null) {
+                copier.join();
+            }
+            timer.record(null, "backend", sw.stop().minus(emitted));
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(1);
@@ -450,6 +695,87 @@ public class Main {
         stdOuts.forEach(System.out::println);
     }
 
+    /**
+     * runBackendPooled(binArgs, jobSources, astFiles, asts) sends one job per
+     * AST file to the persistent backend and reports each job's diagnostics in
+     * the order of astFiles. jobSources names the source of each AST file, and
+     * asts is either empty or holds the AST of each AST file.
+     */
+    private List<OCamlBackend.Result> runBackendPooled(List<String> binArgs,
+                                                      List<String> jobSources,
+                                                      List<String> astFiles,
+                                                      List<FullProgram<Position>> asts) {
+        int workers = Math.max(backendWorkers, 1);
+        if (backend != null && !backend.matches(compilerPath, workers)) {
+            backend.close();
+            backend = null;
+        }
+        if (backend == null) {
+            try {
+                backend = new OCamlBackend(compilerPath, workers);
+            } catch (IOException e) {
+                e.printStackTrace();
+                System.exit(1);
+            }
+        }
+
+        List<Future<OCamlBackend.Result>> jobs = new ArrayList<>();
+        for (int i = 0; i < astFiles.size(); i++) {
+            List<FullProgram<Position>> jobAsts = asts.isEmpty() ?
+                new ArrayList<>() : Util.singleton(asts.get(i));
+            jobs.add(backend.submit(binArgs, Util.singleton(astFiles.get(i)), jobAsts));
+        }
+
+        List<OCamlBackend.Result> results = new ArrayList<>();
+        for (int i = 0; i < jobs.size(); i++) {
+            OCamlBackend.Result result;
+            try {
+                result = jobs.get(i).get();
+                timer.record(jobSources.get(i), "backend", result.cost);
+            } catch (ExecutionException e) {
+                // A job whose worker crashed or garbled its answer fails on
+                // its own; the worker has been replaced for the jobs after it.
+                backendFailed = true;
+                result = new OCamlBackend.Result(-1, new ArrayList<>(),
+                    Optional.of(String.format("Backend failed on %s: %s",
+                        jobSources.get(i), e.getCause().getMessage())),
+                    PhaseTimer.Measurement.ZERO);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+                System.exit(1);
+                return results;
+            }
+            result.diagnostics.forEach(System.out::println);
+            if (result.error.isPresent()) {
+                System.out.println(result.error.get());
+            }
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * openBuildCache(binArgs, ext) opens the -cache directory for outputs
+     * with extension ext of a compile with backend arguments binArgs.
+     */
+    private BuildCache openBuildCache(List<String> binArgs, String extension) {
+        List<String> sortedArgs = new ArrayList<>(binArgs);
+        sortedArgs.sort(null);
+        List<String> config = Arrays.asList(
+            BuildCache.compilerFingerprint(),
+            BuildCache.backendFingerprint(compilerPath),
+            extension,
+            String.join(" ", sortedArgs)
+        );
+        try {
+            return new BuildCache(cacheDir, config);
+        } catch (IOException e) {
+            System.out.println(e.getMessage());
+            System.exit(1);
+            return null;
+        }
+    }
+
     private static <A> List<A> dedup(List<A> xs) {
         // http://stackoverflow.com/a/2849570/3187068
         Set<A> nodups = new HashSet<>();
@@ -548,9 +874,11 @@ public class Main {
     private void doLex(List<String> filenames) {
         List<XiSource> sources = XiSource.createMany(filenames);
 
-        List<Tuple<Lexed, XiSource>> lexedOut = Lists.transform(sources,
-            xs -> Tuple.of(Actions.lex(xs.reader), xs)
-        );
+        List<Tuple<Lexed, XiSource>> lexedOut = new ArrayList<>();
+        for (XiSource xs : sources) {
+            lexedOut.add(Tuple.of(timer.time(xs.filename, "lex", () -> Actions.lex(xs.reader)), xs));
+            xs.close();
+        }
 
         for (Tuple<Lexed, XiSource> t : lexedOut) {
             Lexed lexed = t.fst;
@@ -577,31 +905,33 @@ public class Main {
             }
 
             String outputFilename = diagPathOut(t.snd, "lexed");
-            writeToFile(outputFilename, outputBuilder.toString());
+            timer.time(t.snd.filename, "write",
+                () -> writeToFile(outputFilename, outputBuilder.toString()));
         }
     }
 
     void doParse(List<String> filenames) {
         List<XiSource> sources = XiSource.createMany(filenames);
 
-        List<Tuple<Parsed, XiSource>> parsed = Lists.transform(sources,
-            xs -> Tuple.of(Actions.parse(xs.reader), xs)
-        );
+        List<Tuple<Parsed, XiSource>> parsed = new ArrayList<>();
+        for (XiSource xs : sources) {
+            parsed.add(Tuple.of(timer.time(xs.filename, "parse", () -> Actions.parse(xs.reader)), xs));
+            xs.close();
+        }
 
         for (Tuple<Parsed, XiSource> p : parsed) {
             String outputFilename = diagPathOut(p.snd, "parsed");
-            SExpOut sExpOut = new SExpOut(getFileOutputStream(outputFilename));
-
             Parsed result = p.fst;
-            if (result.prog.isPresent()) {
-                sExpOut.visit(result.prog.get());
-                sExpOut.flush();
-            } else {
-                writeParseError(result.exception.get(), p.snd.filename, outputFilename);
-            }
+            timer.time(p.snd.filename, "write", () -> {
+                SExpOut sExpOut = new SExpOut(getFileOutputStream(outputFilename));
+                if (result.prog.isPresent()) {
+                    sExpOut.visit(result.prog.get());
+                    sExpOut.flush();
+                } else {
+                    writeParseError(result.exception.get(), p.snd.filename, outputFilename);
+                }
+            });
         }
-
-        System.exit(0);
     }
 
     void doMode(String mode, String ext, List<String> files, List<String> opts) {
@@ -687,6 +1017,16 @@ public class Main {
                 System.exit(0);
             }
 
+            compilerPath = inWorkingDir(compilerPath).toString();
+            if (!cacheDir.equals("")) {
+                cacheDir = inWorkingDir(cacheDir).toString();
+            }
+
+            if (serverPortFile != null) {
+                CompileServer.serve(inWorkingDir(serverPortFile).toString());
+                return;
+            }
+
 
             if (reportOpts) {
                 List<String> opts = Arrays.asList(
@@ -707,9 +1047,16 @@ public class Main {
                 System.exit(1);
             }
 
+            // ForkJoinPool takes at most 32767 threads.
+            if (frontendThreads < 1 || frontendThreads > 32767) {
+                System.out.println("-frontendthreads: must be between 1 and 32767");
+                System.exit(1);
+            }
+
             sourcePath = sourcePath.equals("") ?
                     "" : Files.simplifyPath(sourcePath);
             List<String> opts = gatherOpts();
+            timer = new PhaseTimer(timePhases);
 
                  if (lexMode)            { doLex           (arguments); }
             else if (parseMode)          { doParse         (arguments); }
@@ -722,13 +1069,70 @@ public class Main {
             else if (optCfg != null)     { doOptCfg        (arguments, opts); }
             else if (asmDebugMode)       { doAsmGenDebug   (arguments, opts); }
             else                         { doAsmGen        (arguments, opts); }
+
+            if (timePhases) {
+                File report = Paths.get(outPath("phases.json")).toFile();
+                try {
+                    timer.writeJson(report);
+                } catch (IOException e) {
+                    System.out.println(String.format(
+                        "Cannot write to file %s",
+                        report.getAbsolutePath()
+                    ));
+                    System.exit(1);
+                }
+            }
+
+            if (backendFailed) {
+                System.exit(1);
+            }
         } catch(CmdLineException e) {
             System.err.println(e.getMessage());
             printUsage();
+        } finally {
+            if (backend != null && !serving) {
+                backend.close();
+            }
         }
     }
 
+    private static Map<Field, Object> snapshotOptions() {
+        Map<Field, Object> defaults = new HashMap<>();
+        for (Field f : Main.class.getDeclaredFields()) {
+            if (f.isAnnotationPresent(Option.class)
+                    || f.isAnnotationPresent(Argument.class)) {
+                f.setAccessible(true);
+                try {
+                    defaults.put(f, f.get(null));
+                } catch (IllegalAccessException e) {
+                    throw new AssertionError(e);
+                }
+            }
+        }
+        return defaults;
+    }
+
+    /**
+     * runRequest(cwd, args) compiles as if xic had been run with args in
+     * directory cwd. Options are static, so they are reset to their defaults
+     * first; everything else, like the backend workers, stays warm.
+     */
+    static void runRequest(String cwd, String[] args) {
+        for (Map.Entry<Field, Object> e : optionDefaults.entrySet()) {
+            Object v = e.getValue();
+            try {
+                e.getKey().set(null, v instanceof List ? new ArrayList<>((List<?>) v) : v);
+            } catch (IllegalAccessException ex) {
+                throw new AssertionError(ex);
+            }
+        }
+        workingDir = cwd;
+        serving = true;
+        new Main().doMain(args);
+    }
+
     public static void main(String[] args) {
+        optionDefaults = snapshotOptions();
         new Main().doMain(args);
     }
 }
@@ -0,0 +1,283 @@
+package mjw297;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import mjw297.Ast.FullProgram;
+
+/**
+ * An {@code OCamlBackend} keeps a pool of long-lived {@code main.byte
+ * --server} processes running and hands them compile jobs, so that process
+ * startup and OCaml runtime initialization are paid once per worker rather
+ * than once per compile.
+ *
+ * Jobs are sent one per line as {@code <id> <flags sexp>}, where the flags
+ * sexp is the {@code flags} record of {@code main.ml}. A worker answers with
+ * any number of {@code <id> diag <msg>} lines followed by a single {@code <id>
+ * done ok} or {@code <id> done error <msg>} line. A job whose flags include
+ * {@code stdin_asts} is followed by one AST sexp per line, in the order of its
+ * astfiles.
+ */
+class OCamlBackend implements Closeable {
+    /** The boolean fields of main.ml's {@code flags} record. */
+    private static final List<String> FLAGS = Arrays.asList(
+        "typecheck", "tcdebug", "nolower", "lower", "irgen", "optir_initial",
+        "optir_final", "optcfg_initial", "optcfg_final", "asmdebug", "acf",
+        "icf", "cp", "pre", "is", "reg", "stdin_asts"
+    );
+
+    /**
+     * The outcome of a single job, tagged with the job's id. {@code cost} is
+     * the job's wall time, along with the CPU time and allocation of sending
+     * it and waiting on the answer.
+     */
+    static class Result {
+        public final long jobId;
+        public final List<String> diagnostics;
+        public final Optional<String> error;
+        public final PhaseTimer.Measurement cost;
+
+        Result(long jobId, List<String> diagnostics, Optional<String> error,
+               PhaseTimer.Measurement cost) {
+            this.jobId = jobId;
+            this.diagnostics = diagnostics;
+            this.error = error;
+            this.cost = cost;
+        }
+    }
+
+    /** A single {@code main.byte --server} process. */
+    private static class Worker {
+        final Process proc;
+        final OutputStream in;
+        final BufferedReader out;
+        final Thread errForwarder;
+
+        Worker(String compilerPath) throws IOException {
+            proc = new ProcessBuilder("./bin/main.byte", "--server")
+                .directory(Paths.get(compilerPath).toFile())
+                .start();
+            in = new BufferedOutputStream(proc.getOutputStream());
+            out = new BufferedReader(new InputStreamReader(proc.getInputStream()));
+
+            // Anything the worker prints to stderr is not tied to a job, so
+            // forward it as is, the same way one-shot compiles do. System.out
+            // is looked up per line since a compile server swaps it per request.
+            BufferedReader err = new BufferedReader(
+                new InputStreamReader(proc.getErrorStream())
+            );
+            errForwarder = new Thread(() -> {
+                try {
+                    err.lines().forEach(l -> System.out.println(l));
+                } catch (UncheckedIOException e) {
+                    // Killed; the stream was closed under us.
+                }
+            });
+            errForwarder.setDaemon(true);
+            errForwarder.start();
+        }
+
+        Result run(long id, String flags, List<FullProgram<Position>> asts)
+            throws IOException {
+            PhaseTimer.Stopwatch sw = new PhaseTimer.Stopwatch();
+            in.write(String.format("%d %s\n", id, flags).getBytes());
+            for (FullProgram<Position> ast : asts) {
+                SExpJaneStreetOut sexpOut = new SExpJaneStreetOut(in);
+                sexpOut.visit(ast);
+                sexpOut.flush();
+                in.write('\n');
+            }
+            in.flush();
+
+            String prefix = id + " ";
+            List<String> diagnostics = new ArrayList<>();
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (!line.startsWith(prefix)) {
+                    throw new IOException("backend answered out of order: " + line);
+                }
+                String rest = line.substring(prefix.length());
+                if (rest.startsWith("diag ")) {
+                    diagnostics.add(rest.substring("diag ".length()));
+                } else if (rest.equals("done ok")) {
+                    return new Result(id, diagnostics, Optional.empty(), sw.stop());
+                } else if (rest.startsWith("done error ")) {
+                    String msg = rest.substring("done error ".length());
+                    return new Result(id, diagnostics, Optional.of(msg), sw.stop());
+                } else {
+                    throw new IOException("malformed backend response: " + line);
+                }
+            }
+            // Let the worker finish exiting, so kill() knows it crashed.
+            try {
+                proc.waitFor(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new IOException("backend exited during job " + id);
+        }
+
+        /** Stop a worker that may be stuck or out of step with its jobs. */
+        void kill() {
+            // A worker that crashed has usually said why on stderr, so let
+            // that through before the streams are closed.
+            if (!proc.isAlive()) {
+                try {
+                    errForwarder.join(1000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            proc.destroyForcibly();
+            try {
+                in.close();
+            } catch (IOException e) {
+                // It's gone either way.
+            }
+        }
+
+        void close() {
+            try {
+                in.close();
+                proc.waitFor();
+            } catch (IOException | InterruptedException e) {
+                proc.destroy();
+            }
+        }
+    }
+
+    private final String compilerPath;
+    private final List<Worker> workers;
+    private final BlockingQueue<Worker> idle;
+    private final ExecutorService dispatcher;
+    private final AtomicLong nextJobId;
+
+    OCamlBackend(String compilerPath, int numWorkers) throws IOException {
+        this.compilerPath = compilerPath;
+        workers = Collections.synchronizedList(new ArrayList<>());
+        idle = new ArrayBlockingQueue<>(numWorkers);
+        for (int i = 0; i < numWorkers; i++) {
+            Worker w = new Worker(compilerPath);
+            workers.add(w);
+            idle.add(w);
+        }
+        dispatcher = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread t = new Thread(r);
+            t.setDaemon(true);
+            return t;
+        });
+        nextJobId = new AtomicLong(0);
+    }
+
+    /**
+     * {@code submit(binArgs, astFiles, asts)} runs the backend on {@code
+     * astFiles} with the {@code --flag} style arguments {@code binArgs} on the
+     * next idle worker. If {@code binArgs} contains {@code --stdin-asts},
+     * {@code asts} are piped to the worker and {@code astFiles} only name the
+     * outputs; otherwise {@code asts} should be empty.
+     */
+    Future<Result> submit(List<String> binArgs, List<String> astFiles,
+                          List<FullProgram<Position>> asts) {
+        long id = nextJobId.getAndIncrement();
+        String flags = flagsSexp(binArgs, astFiles);
+        return dispatcher.submit(() -> {
+            Worker w = idle.take();
+            if (!w.proc.isAlive()) {
+                w = replace(w);
+            }
+            boolean ok = false;
+            try {
+                Result result = w.run(id, flags, asts);
+                ok = true;
+                return result;
+            } finally {
+                // A worker that failed mid-job may have died, or may still
+                // have part of an answer to send, so it can't take another.
+                idle.put(ok ? w : replace(w));
+            }
+        });
+    }
+
+    /**
+     * {@code replace(w)} kills {@code w} and starts a new worker in its
+     * place. If that fails, {@code w} is returned, and is replaced again
+     * before its next job.
+     */
+    private Worker replace(Worker w) {
+        w.kill();
+        Worker fresh;
+        try {
+            fresh = new Worker(compilerPath);
+        } catch (IOException e) {
+            return w;
+        }
+        synchronized (workers) {
+            workers.set(workers.indexOf(w), fresh);
+        }
+        return fresh;
+    }
+
+    /** Whether this backend runs {@code numWorkers} workers from {@code compilerPath}. */
+    boolean matches(String compilerPath, int numWorkers) {
+        return this.compilerPath.equals(compilerPath) && workers.size() == numWorkers;
+    }
+
+    @Override
+    public void close() {
+        dispatcher.shutdownNow();
+        workers.forEach(Worker::close);
+    }
+
+    /**
+     * {@code flagsSexp(binArgs, astFiles)} renders command line arguments as
+     * main.ml's {@code flags} record, e.g. {@code --optir-initial} becomes
+     * {@code (optir_initial true)}.
+     */
+    static String flagsSexp(List<String> binArgs, List<String> astFiles) {
+        List<String> set = new ArrayList<>();
+        for (String arg : binArgs) {
+            String flag = arg.replaceFirst("^--", "").replace('-', '_');
+            if (!FLAGS.contains(flag)) {
+                throw new IllegalArgumentException("unknown backend flag " + arg);
+            }
+            set.add(flag);
+        }
+
+        StringBuilder sb = new StringBuilder("(");
+        for (String flag : FLAGS) {
+            sb.append(String.format("(%s %b)", flag, set.contains(flag)));
+        }
+        sb.append("(astfiles (");
+        for (String f : astFiles) {
+            sb.append(sexpAtom(f)).append(' ');
+        }
+        sb.append(")))");
+        return sb.toString();
+    }
+
+    /** Quote {@code s} as a Jane Street sexp atom if it needs quoting. */
+    static String sexpAtom(String s) {
+        if (!s.isEmpty() && s.matches("[^\\s()\";\\\\]+")) {
+            return s;
+        }
+        return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+}
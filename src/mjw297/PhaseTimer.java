@@ -0,0 +1,212 @@
+package mjw297;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Supplier;
+
+import com.google.common.io.Files;
+
+/**
+ * A {@code PhaseTimer} records how long each phase of the compiler takes on
+ * each file: wall time, CPU time of the thread doing the work, and bytes that
+ * thread allocated, as counted by the JVM. Measurements can be taken on any
+ * thread. A disabled timer just runs the work it is handed.
+ */
+class PhaseTimer {
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    /** The cost of one span of work. Unsupported counters are -1. */
+    static class Measurement {
+        static final Measurement ZERO = new Measurement(0, 0, 0);
+
+        public final long wallNanos;
+        public final long cpuNanos;
+        public final long allocatedBytes;
+
+        Measurement(long wallNanos, long cpuNanos, long allocatedBytes) {
+            this.wallNanos = wallNanos;
+            this.cpuNanos = cpuNanos;
+            this.allocatedBytes = allocatedBytes;
+        }
+
+        Measurement plus(Measurement m) {
+            return new Measurement(
+                wallNanos + m.wallNanos,
+                cpuNanos < 0 || m.cpuNanos < 0 ? -1 : cpuNanos + m.cpuNanos,
+                allocatedBytes < 0 || m.allocatedBytes < 0 ? -1 : allocatedBytes + m.allocatedBytes
+            );
+        }
+
+        /** This span of work, leaving out {@code m}, a span within it. */
+        Measurement minus(Measurement m) {
+            return new Measurement(
+                wallNanos - m.wallNanos,
+                cpuNanos < 0 || m.cpuNanos < 0 ? -1 : cpuNanos - m.cpuNanos,
+                allocatedBytes < 0 || m.allocatedBytes < 0 ? -1 : allocatedBytes - m.allocatedBytes
+            );
+        }
+    }
+
+    /** Measures the current thread from creation until {@link #stop()}. */
+    static class Stopwatch {
+        private final long wall;
+        private final long cpu;
+        private final long alloc;
+
+        Stopwatch() {
+            wall = System.nanoTime();
+            cpu = cpuTime();
+            alloc = allocatedBytes();
+        }
+
+        Measurement stop() {
+            long cpu1 = cpuTime();
+            long alloc1 = allocatedBytes();
+            return new Measurement(
+                System.nanoTime() - wall,
+                cpu < 0 || cpu1 < 0 ? -1 : cpu1 - cpu,
+                alloc < 0 || alloc1 < 0 ? -1 : alloc1 - alloc
+            );
+        }
+    }
+
+    private static class Sample {
+        final String file;
+        final String phase;
+        final Measurement m;
+
+        Sample(String file, String phase, Measurement m) {
+            this.file = file;
+            this.phase = phase;
+            this.m = m;
+        }
+    }
+
+    private final boolean enabled;
+    private final ConcurrentLinkedQueue<Sample> samples;
+
+    PhaseTimer(boolean enabled) {
+        this.enabled = enabled;
+        this.samples = new ConcurrentLinkedQueue<>();
+    }
+
+    /** Whether samples are being kept, i.e. whether --time-phases was given */
+    boolean enabled() {
+        return enabled;
+    }
+
+    private static long cpuTime() {
+        return threads.isCurrentThreadCpuTimeSupported() ?
+            threads.getCurrentThreadCpuTime() : -1;
+    }
+
+    private static long allocatedBytes() {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) threads;
+            if (t.isThreadAllocatedMemorySupported() && t.isThreadAllocatedMemoryEnabled()) {
+                return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * {@code record(file, phase, m)} records that {@code phase} cost {@code m}
+     * on {@code file}. A null file means the phase ran on all files at once.
+     */
+    void record(String file, String phase, Measurement m) {
+        if (enabled) {
+            samples.add(new Sample(file, phase, m));
+        }
+    }
+
+    <T> T time(String file, String phase, Supplier<T> work) {
+        if (!enabled) {
+            return work.get();
+        }
+        Stopwatch sw = new Stopwatch();
+        T result = work.get();
+        record(file, phase, sw.stop());
+        return result;
+    }
+
+    void time(String file, String phase, Runnable work) {
+        time(file, phase, () -> {
+            work.run();
+            return null;
+        });
+    }
+
+    /**
+     * {@code writeJson(f)} writes every sample, sorted by file and phase,
+     * along with per-phase totals as JSON to {@code f}.
+     */
+    void writeJson(File f) throws IOException {
+        List<Sample> sorted = new ArrayList<>(samples);
+        sorted.sort(Comparator
+            .comparing((Sample s) -> s.file == null ? "" : s.file)
+            .thenComparing(s -> s.phase));
+
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n  \"samples\": [");
+        for (int i = 0; i < sorted.size(); i++) {
+            Sample s = sorted.get(i);
+            sb.append(i == 0 ? "\n" : ",\n");
+            sb.append(String.format(
+                "    {\"file\": %s, \"phase\": %s, %s}",
+                s.file == null ? "null" : jsonString(s.file),
+                jsonString(s.phase),
+                jsonFields(s.m.wallNanos, s.m.cpuNanos, s.m.allocatedBytes)
+            ));
+
+            long[] t = totals.computeIfAbsent(s.phase, p -> new long[3]);
+            t[0] += s.m.wallNanos;
+            t[1] += Math.max(s.m.cpuNanos, 0);
+            t[2] += Math.max(s.m.allocatedBytes, 0);
+        }
+        sb.append("\n  ],\n  \"totals\": {");
+        int i = 0;
+        for (Map.Entry<String, long[]> e : totals.entrySet()) {
+            long[] t = e.getValue();
+            sb.append(i++ == 0 ? "\n" : ",\n");
+            sb.append(String.format(
+                "    %s: {%s}", jsonString(e.getKey()), jsonFields(t[0], t[1], t[2])
+            ));
+        }
+        sb.append("\n  }\n}\n");
+        Files.write(sb.toString().getBytes(StandardCharsets.UTF_8), f);
+    }
+
+    private static String jsonFields(long wall, long cpu, long alloc) {
+        return String.format(
+            "\"wallNanos\": %d, \"cpuNanos\": %s, \"allocatedBytes\": %s",
+            wall,
+            cpu < 0 ? "null" : String.valueOf(cpu),
+            alloc < 0 ? "null" : String.valueOf(alloc)
+        );
+    }
+
+    private static String jsonString(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (char c : s.toCharArray()) {
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
@@ -0,0 +1,303 @@
+package mjw297;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A {@code WorkloadGen} writes large, type-correct Xi programs for stress
+ * testing and benchmarking the compiler. Unlike the random ASTs of {@link
+ * AstGen}, which are only syntactically valid, every program it writes
+ * typechecks, so it can be pushed through every phase of the compiler.
+ *
+ * The shape of a program is controlled by a {@link Config}: how many
+ * functions it has, how many statements each function body holds, how deeply
+ * {@code if}s and {@code while}s nest, how many operands each expression
+ * has, and what fraction of statements and operands work on arrays rather
+ * than plain integers. Generation is deterministic for a given config.
+ *
+ * Every function has the signature {@code f<i>(n: int, arr: int[]): int}
+ * and only calls functions defined before it. Parameters and loop counters
+ * are read but never assigned to. Every array has length {@link
+ * #ARRAY_LENGTH} and every index is a constant or a loop counter modulo that
+ * length, and every loop runs a bounded number of times.
+ */
+class WorkloadGen {
+    /** The length of every array in a generated program. */
+    static final int ARRAY_LENGTH = 8;
+
+    /** The knobs that control the size and shape of generated programs. */
+    static class Config {
+        /** Number of functions, not counting main. Ignored if lines > 0. */
+        int functions = 10;
+
+        /** Keep adding functions until the program has this many lines. */
+        int lines = 0;
+
+        /** Statements in a function body. */
+        int statements = 20;
+
+        /** Maximum nesting of ifs and whiles. */
+        int depth = 3;
+
+        /** Operands per expression. */
+        int width = 4;
+
+        /** Percentage of statements and operands that work on arrays. */
+        int arrays = 50;
+
+        long seed = 0;
+    }
+
+    private final Config config;
+    private final Random rand;
+    private final StringBuilder out;
+    private int lines;
+
+    /* Per-function state */
+    private int functionIndex;
+    private int nextVar;
+    private List<List<String>> intScopes;
+    private List<List<String>> arrayScopes;
+    private List<String> counters;
+
+    WorkloadGen(Config config) {
+        this.config = config;
+        this.rand = new Random(config.seed);
+        this.out = new StringBuilder();
+    }
+
+    /**
+     * {@code generate()} returns the source of a program shaped by this
+     * generator's config.
+     */
+    String generate() {
+        int functions = 0;
+        while (config.lines > 0 ? lines < config.lines : functions < config.functions) {
+            genFunction(functions++);
+        }
+        genMain(functions);
+        return out.toString();
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // output
+    ////////////////////////////////////////////////////////////////////////////
+    private void line(int indent, String s) {
+        for (int i = 0; i < indent; i++) {
+            out.append("    ");
+        }
+        out.append(s).append('\n');
+        lines++;
+    }
+
+    private boolean chance(int percent) {
+        return rand.nextInt(100) < percent;
+    }
+
+    private <T> T choose(List<T> choices) {
+        return choices.get(rand.nextInt(choices.size()));
+    }
+
+    private static List<String> flatten(List<List<String>> scopes) {
+        List<String> names = new ArrayList<>();
+        scopes.forEach(names::addAll);
+        return names;
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // declarations
+    ////////////////////////////////////////////////////////////////////////////
+    private void genFunction(int index) {
+        functionIndex = index;
+        nextVar = 0;
+        intScopes = new ArrayList<>();
+        arrayScopes = new ArrayList<>();
+        counters = new ArrayList<>();
+        pushScope();
+        arrayScopes.get(0).add("arr");
+
+        line(0, String.format("f%d(n: int, arr: int[]): int {", index));
+        for (int i = 0; i < config.statements; i++) {
+            genStmt(1, config.depth);
+        }
+        line(1, "return " + genIntExpr(config.width));
+        line(0, "}");
+        line(0, "");
+    }
+
+    private void genMain(int functions) {
+        line(0, "main(args: int[][]) {");
+        line(1, "arr: int[] = " + genArrayLiteral());
+        for (int i = 0; i < functions; i++) {
+            line(1, String.format("_ = f%d(%d, arr)", i, i));
+        }
+        line(0, "}");
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // statements
+    ////////////////////////////////////////////////////////////////////////////
+    private void pushScope() {
+        intScopes.add(new ArrayList<>());
+        arrayScopes.add(new ArrayList<>());
+    }
+
+    private void popScope() {
+        intScopes.remove(intScopes.size() - 1);
+        arrayScopes.remove(arrayScopes.size() - 1);
+    }
+
+    private String fresh(String prefix) {
+        return prefix + nextVar++;
+    }
+
+    private void genBlock(int indent, int depth) {
+        pushScope();
+        int statements = Math.max(1, config.statements / 4);
+        for (int i = 0; i < statements; i++) {
+            genStmt(indent, depth);
+        }
+        popScope();
+    }
+
+    private void genStmt(int indent, int depth) {
+        if (depth > 0 && chance(25)) {
+            switch (rand.nextInt(3)) {
+                case 0:  genIf(indent, depth);     return;
+                case 1:  genIfElse(indent, depth); return;
+                default: genWhile(indent, depth);  return;
+            }
+        }
+
+        boolean array = chance(config.arrays);
+        List<String> ints = intScopes.get(intScopes.size() - 1);
+        List<String> arrays = arrayScopes.get(arrayScopes.size() - 1);
+        if (array) {
+            if (chance(30)) {
+                String a = fresh("a");
+                line(indent, String.format("%s: int[] = %s", a, genArrayLiteral()));
+                arrays.add(a);
+            } else {
+                String a = choose(flatten(arrayScopes));
+                line(indent, String.format(
+                    "%s[%s] = %s", a, genIndex(), genIntExpr(config.width)
+                ));
+            }
+        } else {
+            List<String> assignable = flatten(intScopes);
+            if (assignable.isEmpty() || chance(30)) {
+                String v = fresh("v");
+                line(indent, String.format("%s: int = %s", v, genIntExpr(config.width)));
+                ints.add(v);
+            } else {
+                String v = choose(assignable);
+                line(indent, String.format("%s = %s", v, genIntExpr(config.width)));
+            }
+        }
+    }
+
+    private void genIf(int indent, int depth) {
+        line(indent, String.format("if (%s) {", genBoolExpr()));
+        genBlock(indent + 1, depth - 1);
+        line(indent, "}");
+    }
+
+    private void genIfElse(int indent, int depth) {
+        line(indent, String.format("if (%s) {", genBoolExpr()));
+        genBlock(indent + 1, depth - 1);
+        line(indent, "} else {");
+        genBlock(indent + 1, depth - 1);
+        line(indent, "}");
+    }
+
+    private void genWhile(int indent, int depth) {
+        // Loop counters can be read but never assigned to by the body, so
+        // every loop terminates.
+        String c = fresh("c");
+        line(indent, String.format("%s: int = 0", c));
+        line(indent, String.format("while (%s < %d) {", c, 1 + rand.nextInt(ARRAY_LENGTH)));
+        counters.add(c);
+        genBlock(indent + 1, depth - 1);
+        line(indent + 1, String.format("%s = %s + 1", c, c));
+        counters.remove(counters.size() - 1);
+        line(indent, "}");
+    }
+
+    ////////////////////////////////////////////////////////////////////////////
+    // expressions
+    ////////////////////////////////////////////////////////////////////////////
+    private String genArrayLiteral() {
+        List<String> elems = new ArrayList<>();
+        for (int i = 0; i < ARRAY_LENGTH; i++) {
+            elems.add(String.valueOf(rand.nextInt(100)));
+        }
+        return "{" + String.join(", ", elems) + "}";
+    }
+
+    private String genIndex() {
+        if (!counters.isEmpty() && rand.nextBoolean()) {
+            return String.format("%s %% %d", choose(counters), ARRAY_LENGTH);
+        }
+        return String.valueOf(rand.nextInt(ARRAY_LENGTH));
+    }
+
+    /** Every int variable in scope, including the ones that can't be assigned. */
+    private List<String> readableInts() {
+        List<String> ints = flatten(intScopes);
+        ints.add("n");
+        ints.addAll(counters);
+        return ints;
+    }
+
+    private String genIntOperand() {
+        if (chance(config.arrays)) {
+            List<String> arrays = flatten(arrayScopes);
+            int choice = rand.nextInt(4);
+            if (choice == 0) {
+                return String.format("length(%s)", choose(arrays));
+            } else if (choice == 1 && functionIndex > 0) {
+                return String.format(
+                    "f%d(%s, %s)",
+                    rand.nextInt(functionIndex),
+                    choose(readableInts()),
+                    choose(arrays)
+                );
+            } else {
+                return String.format("%s[%s]", choose(arrays), genIndex());
+            }
+        }
+
+        if (rand.nextInt(3) == 0) {
+            return String.valueOf(rand.nextInt(1000));
+        }
+        return choose(readableInts());
+    }
+
+    private String genIntExpr(int width) {
+        String[] ops = {" + ", " - ", " * "};
+        StringBuilder sb = new StringBuilder(genIntOperand());
+        for (int i = 1; i < width; i++) {
+            sb.append(ops[rand.nextInt(ops.length)]).append(genIntOperand());
+        }
+        return sb.toString();
+    }
+
+    private String genBoolExpr() {
+        String[] cmps = {" < ", " <= ", " > ", " >= ", " == ", " != "};
+        String[] ops = {" & ", " | "};
+        StringBuilder sb = new StringBuilder();
+        int comparisons = Math.max(1, config.width / 2);
+        for (int i = 0; i < comparisons; i++) {
+            if (i > 0) {
+                sb.append(ops[rand.nextInt(ops.length)]);
+            }
+            sb.append('(')
+              .append(genIntExpr(Math.max(1, config.width / 2)))
+              .append(cmps[rand.nextInt(cmps.length)])
+              .append(genIntOperand())
+              .append(')');
+        }
+        return sb.toString();
+    }
+}
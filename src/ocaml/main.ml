@@ -44,7 +44,8 @@ type flags = {
   reg : bool;
 
   (* args *)
-  astfiles : string list;
+  astfiles   : string list;
+  stdin_asts : bool;
 } [@@deriving sexp]
 
 type opts = {
@@ -77,6 +78,10 @@ let format_err_output (row: int) (col: int) (msg: string) : string =
 let format_err_print (filename: string) (line: int) (col: int) (msg: string) : string =
   sprintf "Semantic error at %s:%d:%d: %s" filename line col msg
 
+(* Where diagnostics go. In server mode this is swapped out per job so that
+ * every diagnostic is tagged with the id of the job that produced it. *)
+let report : (string -> unit) ref = ref Print.print_endline
+
 let change_ext ~(ext: string) (filename: string) =
   (Filename.chop_extension filename) ^ ext
 
@@ -89,7 +94,7 @@ let asts_to_strs
     match tcf p with
     | Ok el -> strf el
     | Error ((row, col), msg) -> (
-        Print.print_endline (format_err_print name row col msg);
+        !report (format_err_print name row col msg);
         format_err_output row col msg
     )
   in
@@ -105,7 +110,7 @@ let asts_to_strs_pairs
     match tcf p with
     | Ok (el1, el2) -> strf1 el1, strf2 el2
     | Error ((row, col), msg) -> (
-        Print.print_endline (format_err_print name row col msg);
+        !report (format_err_print name row col msg);
         let s = format_err_output row col msg in
         (s, s)
     )
@@ -116,9 +121,24 @@ let writes (outs: string list) (content_list: string list) =
   let zipped = List.zip_exn outs content_list in
   Deferred.List.iter ~f:(fun (out, contents) -> Writer.save out ~contents) zipped
 
-let get_asts (astfiles: string list) : (Pos.full_prog list) Deferred.t =
-  let f astfile = Reader.load_sexp_exn astfile Pos.full_prog_of_sexp in
-  Deferred.List.map ~f astfiles
+(* With --stdin-asts, one AST per astfile is read from stdin and the astfiles
+ * only name the outputs; otherwise each astfile holds its own AST. *)
+let get_asts (flags: flags) : (Pos.full_prog list) Deferred.t =
+  if flags.stdin_asts then
+    let stdin = Lazy.force Reader.stdin in
+    let f _ =
+      Reader.read_sexp stdin >>| function
+      | `Ok sexp -> Pos.full_prog_of_sexp sexp
+      | `Eof -> failwith "--stdin-asts: fewer ASTs than --astfiles"
+    in
+    Deferred.List.map ~how:`Sequential ~f flags.astfiles
+  else
+    let f astfile = Reader.load_sexp_exn astfile Pos.full_prog_of_sexp in
+    Deferred.List.map ~f flags.astfiles
+
+(* Intermediate astfiles only exist on disk when they weren't piped in. *)
+let remove_astfile (flags: flags) (astfile: string) : unit Deferred.t =
+  if flags.stdin_asts then return () else Unix.remove astfile
 
 (* ************************************************************************** *)
 (* modes                                                                      *)
@@ -189,7 +209,7 @@ let asm_strf : Asm.asm list -> string =
 (* ************************************************************************** *)
 let main opts flags () : unit Deferred.t =
   (* parse the asts *)
-  get_asts flags.astfiles >>= fun asts ->
+  get_asts flags >>= fun asts ->
 
   (* dispatch logic *)
   let write contents = writes flags.astfiles contents in
@@ -220,7 +240,7 @@ let main opts flags () : unit Deferred.t =
 
       initial >>= fun () ->
       final >>= fun () ->
-      Deferred.List.iter flags.astfiles ~f:Unix.remove
+      Deferred.List.iter flags.astfiles ~f:(remove_astfile flags)
   | _ when flags.optcfg_initial || flags.optcfg_final ->
       let cfg_phase names (phase: string) (filename: string) ((_, funcs): Ir.comp_unit) =
           let f (fname, (_, body, _)) =
@@ -265,9 +285,9 @@ let main opts flags () : unit Deferred.t =
 
             initial >>= fun () ->
             final >>= fun () ->
-            Unix.remove filename
+            remove_astfile flags filename
         | Error ((row, col), msg) -> begin
-            Print.print_endline (format_err_print name row col msg);
+            !report (format_err_print name row col msg);
             Writer.save filename ~contents:(format_err_output row col msg)
         end
       in
@@ -275,6 +295,51 @@ let main opts flags () : unit Deferred.t =
   | _ when flags.asmdebug -> write (asts_to_strs (asmgen true opts) asm_strf asts)
   | _                     -> write (asts_to_strs (asmgen false opts) asm_strf asts)
 
+(* ************************************************************************** *)
+(* server                                                                     *)
+(* ************************************************************************** *)
+(* A long-lived backend that reads one job per line from stdin:
+ *
+ *     <id> <flags sexp>
+ *
+ * Each job is answered on stdout with zero or more "<id> diag <msg>" lines
+ * followed by exactly one "<id> done ok" or "<id> done error <msg>" line.
+ * Jobs are processed one at a time, so the lines of two jobs never
+ * interleave. A job with stdin_asts set is followed on stdin by its ASTs. *)
+let serve () : unit Deferred.t =
+  let stdin = Lazy.force Reader.stdin in
+  let stdout = Lazy.force Writer.stdout in
+  let respond id kind msg =
+    Writer.write_line stdout (sprintf "%s %s %s" id kind msg)
+  in
+  let rec loop () =
+    Reader.read_line stdin >>= function
+    | `Eof -> return ()
+    | `Ok "" -> loop ()
+    | `Ok line ->
+      match String.lsplit2 line ~on:' ' with
+      | None ->
+          respond line "done" "error malformed job";
+          Writer.flushed stdout >>= loop
+      | Some (id, flags_str) ->
+          report := respond id "diag";
+          Monitor.try_with (fun () ->
+            let flags = flags_of_sexp (Sexp.of_string flags_str) in
+            main (opts_of_flags flags) flags ()
+          ) >>= fun result ->
+          report := Print.print_endline;
+          let status =
+            match result with
+            | Ok () -> "ok"
+            | Error e ->
+                let msg = String.tr ~target:'\n' ~replacement:' ' (Exn.to_string e) in
+                "error " ^ msg
+          in
+          respond id "done" status;
+          Writer.flushed stdout >>= loop
+  in
+  loop ()
+
 let () =
   Command.async
     ~summary:"Xi Compiler"
@@ -297,8 +362,10 @@ let () =
       +> flag "--is"             no_arg ~doc:""
       +> flag "--reg"            no_arg ~doc:""
       +> flag "--astfiles"   (listed string) ~doc:""
+      +> flag "--stdin-asts"     no_arg ~doc:""
+      +> flag "--server"         no_arg ~doc:""
     )
-    (fun x00 x01 x02 x03 x04 x05 x06 x07 x08 x09 x10 x11 x12 x13 x14 x15 x16 ->
+    (fun x00 x01 x02 x03 x04 x05 x06 x07 x08 x09 x10 x11 x12 x13 x14 x15 x16 x17 x18 ->
        let flags = {
          typecheck      = x00;
          tcdebug        = x01;
@@ -317,7 +384,8 @@ let () =
          is             = x14;
          reg            = x15;
          astfiles       = x16;
+         stdin_asts     = x17;
        } in
-       main (opts_of_flags flags) flags
+       if x18 then serve else main (opts_of_flags flags) flags
     )
   |> Command.run
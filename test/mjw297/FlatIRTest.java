@@ -0,0 +1,66 @@
+package mjw297;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cornell.cs.cs4120.xic.ir.FlatIR;
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class FlatIRTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        IRCompUnit compUnit = IRSamples.parse(IRSamples.PROGRAM);
+        FlatIR flat = new FlatIR(compUnit);
+        assertEquals(compUnit.toString(), flat.toNode().toString());
+
+        assertEquals(FlatIR.COMPUNIT, flat.op(flat.root()));
+        assertEquals("sample", flat.name(flat.root()));
+        int f = flat.child(flat.root(), 0);
+        assertEquals(0, flat.subtreeStart(f));
+        assertEquals(compUnit.getFunction("f").toString(), flat.toNode(f).toString());
+        int cjump = flat.child(flat.child(f, 0), 3);
+        assertEquals("t", flat.trueLabel(cjump));
+        assertNull(flat.falseLabel(cjump));
+        assertEquals(IRBinOp.OpType.LT, flat.opType(flat.child(cjump, 0)));
+
+        // Every node is entered from its parent, and left in postorder.
+        List<Integer> left = new ArrayList<>();
+        int[] consts = {0};
+        flat.accept(new FlatIR.Visitor() {
+            @Override
+            public boolean enter(FlatIR ir, int parent, int node) {
+                if (parent >= 0) {
+                    int i = 0;
+                    while (ir.child(parent, i) != node) i++;
+                }
+                if (ir.op(node) == FlatIR.CONST) consts[0]++;
+                return ir.op(node) != FlatIR.FUNC || !ir.name(node).equals("g");
+            }
+
+            @Override
+            public void leave(FlatIR ir, int parent, int node) {
+                left.add(node);
+            }
+        });
+        assertEquals(7, consts[0]);
+        assertEquals(flat.root(), (int) left.get(left.size() - 1));
+        for (int i = 1; i < left.size() - 2; i++)
+            assertEquals(left.get(i - 1) + 1, (int) left.get(i));
+    }
+
+    @Test
+    public void testDeepTree() {
+        FlatIR flat = new FlatIR(new IRExp(IRSamples.chain(IRSamples.DEPTH)));
+        assertEquals(2 * IRSamples.DEPTH + 2, flat.size());
+        assertEquals(10, flat.constantCount());
+
+        IRNode node = flat.toNode();
+        assertEquals(IRSamples.DEPTH, IRSamples.depth(((IRExp) node).expr()));
+    }
+}
@@ -0,0 +1,90 @@
+package mjw297;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRBinary;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IRBinaryTest {
+    private static byte[] bytes(IRNode node) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IRBinary.write(node, out);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        IRCompUnit compUnit = IRSamples.parse(IRSamples.PROGRAM);
+
+        Path file = Files.createTempFile("binary", ".irb");
+        Path text = Files.createTempFile("binary", ".ir");
+        try {
+            IRBinary.write(compUnit, file);
+            Files.write(text, IRSamples.PROGRAM.getBytes("UTF-8"));
+            assertTrue(IRBinary.isBinary(file));
+            assertFalse(IRBinary.isBinary(text));
+            assertEquals(compUnit.toString(), IRBinary.read(file).toString());
+            assertEquals(compUnit.toString(), IrInterpreter.load(file).toString());
+            assertEquals(compUnit.toString(), IrInterpreter.load(text).toString());
+        }
+        finally {
+            Files.delete(file);
+            Files.delete(text);
+        }
+    }
+
+    @Test
+    public void testDeepTree() throws Exception {
+        IRExp e = new IRExp(IRSamples.chain(IRSamples.DEPTH));
+        IRNode node = IRBinary.read(ByteBuffer.wrap(bytes(e)));
+        assertEquals(IRSamples.DEPTH, IRSamples.depth(((IRExp) node).expr()));
+    }
+
+    @Test
+    public void testMalformed() throws Exception {
+        byte[] bytes = bytes(IRSamples.parse(IRSamples.PROGRAM));
+
+        // Every proper prefix of a file is rejected, as is a corrupt opcode.
+        for (int n = 0; n < bytes.length; n++) {
+            try {
+                IRBinary.read(ByteBuffer.wrap(Arrays.copyOf(bytes, n)));
+                fail("read " + n + " of " + bytes.length + " bytes");
+            }
+            catch (IOException e) {
+            }
+        }
+        // So is a name longer than the rest of the file, before it is allocated.
+        byte[] longName = Arrays.copyOf(bytes, bytes.length);
+        longName[6] = (byte) 0xff;
+        longName[7] = (byte) 0xff;
+        longName[8] = (byte) 0xff;
+        longName[9] = (byte) 0xff;
+        longName[10] = 0x07;
+        try {
+            IRBinary.read(ByteBuffer.wrap(longName));
+            fail("read a name longer than the file");
+        }
+        catch (IOException e) {
+        }
+
+        bytes[bytes.length - 3] = 100;
+        try {
+            IRBinary.read(ByteBuffer.wrap(bytes));
+            fail("read a corrupt file");
+        }
+        catch (IOException e) {
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package mjw297;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCall;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.IRInterner;
+import edu.cornell.cs.cs4120.xic.ir.IRMem;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRName;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class IRInternerTest {
+    private static final IRBinOp.OpType ADD = IRBinOp.OpType.ADD;
+
+    @Test
+    public void testEquality() {
+        IRExpr a = new IRMem(new IRBinOp(ADD, new IRTemp("x"), new IRConst(8)));
+        IRExpr b = new IRMem(new IRBinOp(ADD, new IRTemp("x"), new IRConst(8)));
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+        assertNotEquals(a, new IRMem(new IRBinOp(ADD, new IRTemp("x"), new IRConst(8)),
+                                     IRMem.MemType.IMMUTABLE));
+        assertNotEquals(a, new IRMem(new IRBinOp(ADD, new IRTemp("y"), new IRConst(8))));
+        assertNotEquals(new IRTemp("f"), new IRName("f"));
+
+        // Calls have side effects, so only the same call is equal to itself.
+        IRCall call = new IRCall(new IRName("f"));
+        assertNotEquals(call, new IRCall(new IRName("f")));
+        assertNotEquals(new IRBinOp(ADD, call, new IRConst(1)),
+                        new IRBinOp(ADD, new IRCall(new IRName("f")), new IRConst(1)));
+    }
+
+    @Test
+    public void testInterning() {
+        IRInterner interner = new IRInterner();
+        IRMem a = interner.mem(interner.binOp(ADD, interner.temp("x"), interner.constant(8)));
+        IRMem b = interner.mem(interner.binOp(ADD, interner.temp("x"), interner.constant(8)));
+        assertSame(a, b);
+        assertEquals(4, interner.size());
+        assertSame(a, interner.mem(new IRBinOp(ADD, new IRTemp("x"), new IRConst(8))));
+
+        IRMove move = (IRMove) interner.intern(new IRMove(
+            new IRMem(new IRBinOp(ADD, new IRTemp("x"), new IRConst(8))),
+            new IRBinOp(ADD, new IRCall(new IRName("f")), new IRTemp("x"))
+        ));
+        assertSame(a, move.target());
+        IRBinOp expr = (IRBinOp) move.expr();
+        assertSame(interner.temp("x"), expr.right());
+        assertSame(interner.name("f"), ((IRCall) expr.left()).target());
+        assertNotSame(expr, interner.intern(
+            new IRBinOp(ADD, new IRCall(new IRName("f")), new IRTemp("x"))));
+    }
+}
@@ -0,0 +1,109 @@
+package mjw297;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRSeq;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRReader;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class IRReaderTest {
+    /** Reads one character at a time, to split every token across reads */
+    private static class SlowReader extends Reader {
+        private final String s;
+        private int pos;
+
+        SlowReader(String s) {
+            this.s = s;
+        }
+
+        @Override
+        public int read(char[] buf, int off, int len) {
+            if (pos == s.length()) return -1;
+            buf[off] = s.charAt(pos++);
+            return 1;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Test
+    public void testSameAsParser() throws Exception {
+        String expected = IRSamples.parse(IRSamples.PROGRAM).toString();
+        assertEquals(expected, new IRReader(new StringReader(IRSamples.PROGRAM)).read().toString());
+        assertEquals(expected, new IRReader(new SlowReader(IRSamples.PROGRAM)).read().toString());
+        ByteBuffer bytes = ByteBuffer.wrap(IRSamples.PROGRAM.getBytes(StandardCharsets.UTF_8));
+        assertEquals(expected, new IRReader(bytes).read().toString());
+
+        // Output of the printer reads back the same, and names are shared.
+        IRCompUnit compUnit = new IRReader(new StringReader(expected)).read();
+        assertEquals(expected, compUnit.toString());
+        IRSeq body = (IRSeq) compUnit.getFunction("f").body();
+        assertSame(((IRTemp) ((IRMove) body.stmts().get(1)).target()).name(),
+                   ((IRTemp) ((IRMove) body.stmts().get(2)).target()).name());
+
+        String unicode = "(COMPUNIT \u00e9t\u00e9 (FUNC \u00e9 (RETURN)))";
+        assertEquals(IRSamples.parse(unicode).toString(),
+                     new IRReader(ByteBuffer.wrap(unicode.getBytes(StandardCharsets.UTF_8)))
+                         .read().toString());
+    }
+
+    @Test
+    public void testDeepTree() throws Exception {
+        String ir = "(COMPUNIT deep (FUNC f (EXP " + IRSamples.chainText(IRSamples.DEPTH) + ")))";
+        IRCompUnit compUnit = new IRReader(new StringReader(ir)).read();
+        IRExpr e = ((IRExp) compUnit.getFunction("f").body()).expr();
+        assertEquals(IRSamples.DEPTH, IRSamples.depth(e));
+        assertEquals(IRSamples.DEPTH % 10, ((IRConst) ((IRBinOp) e).right()).value());
+    }
+
+    @Test
+    public void testErrors() {
+        String[] bad = {
+            "",
+            "(COMPUNIT c)",
+            "(COMPUNIT c (FUNC f (RETURN))",
+            "(COMPUNIT c (FUNC f (RETURN))) x",
+            "(FUNC f (RETURN))",
+            "(COMPUNIT c (FUNC f (RETURN) (RETURN)))",
+            "(COMPUNIT c (FUNC f (EXP (CONST 1) (CONST 2))))",
+            "(COMPUNIT c (FUNC f (EXP (CONST 01))))",
+            "(COMPUNIT c (FUNC f (EXP (CONST -0))))",
+            "(COMPUNIT c (FUNC f (EXP (CONST 18446744073709551616))))",
+            "(COMPUNIT c (FUNC f (EXP (CONST x))))",
+            "(COMPUNIT c (FUNC f (EXP (TEMP 1))))",
+            "(COMPUNIT c (FUNC f (EXP (TEMP ADD))))",
+            "(COMPUNIT c (FUNC f (EXP (TEMP a.b))))",
+            "(COMPUNIT c (FUNC f (EXP (RETURN))))",
+            "(COMPUNIT c (FUNC f (MOVE (CONST 1) (CONST 2))))",
+            "(COMPUNIT c (FUNC f (CJUMP (CONST 1))))",
+            "(COMPUNIT c (FUNC f (CJUMP (CONST 1) a b c)))",
+            "(COMPUNIT c (FUNC f (SEQ)))",
+            "(COMPUNIT c (FUNC f (EXP (CALL))))",
+            "(COMPUNIT c (FUNC f (EXP (NOT (CONST 1)))))",
+        };
+        for (String ir : bad) {
+            try {
+                new IRReader(new StringReader(ir)).read();
+                fail("read " + ir);
+            }
+            catch (IOException e) {
+            }
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package mjw297;
+
+import java.io.StringReader;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRExpr;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRLexer;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRParser;
+
+/** IR programs shared by the tests of the IR readers, writers and visitors */
+final class IRSamples {
+    /** A compilation unit that uses every kind of node, and constants at the limits */
+    static final String PROGRAM = String.join("\n",
+        "(COMPUNIT sample",
+        "    (FUNC f",
+        "        (SEQ",
+        "            (MOVE (TEMP x) (ESEQ (EXP (CONST 0)) (MEM (ADD (TEMP _ARG0) (CONST 8)))))",
+        "            (MOVE (TEMP y) (HMUL (TEMP x) (CONST -9223372036854775808)))",
+        "            (MOVE (TEMP y) (SUB (TEMP y) (CONST 18446744073709551615)))",
+        "            (CJUMP (LT (TEMP x) (CONST 1)) t)",
+        "            (CJUMP (GEQ (TEMP x) (CONST 9223372036854775807)) t u)",
+        "            (LABEL t)",
+        "            (MOVE (MEM (TEMP x)) (CALL (NAME g) (TEMP x) (CONST -1)))",
+        "            (EXP (CALL (NAME g)))",
+        "            (LABEL u)",
+        "            (JUMP (NAME t))",
+        "            (RETURN)))",
+        "    (FUNC g",
+        "        (SEQ (MOVE (TEMP _RET0) (ARSHIFT (CONST 8) (CONST 1))) (RETURN))))"
+    );
+
+    /** How deep {@link #chain} and {@link #chainText} nest by default */
+    static final int DEPTH = 1_000_000;
+
+    private IRSamples() {
+    }
+
+    static IRCompUnit parse(String ir) throws Exception {
+        return new IRParser(new IRLexer(new StringReader(ir))).parse().<IRCompUnit> value();
+    }
+
+    /** ADD(...ADD(ADD(0, 1), 2)..., depth % 10), {@code depth} deep */
+    static IRExpr chain(int depth) {
+        IRExpr e = new IRConst(0);
+        for (int i = 1; i <= depth; i++)
+            e = new IRBinOp(IRBinOp.OpType.ADD, e, new IRConst(i % 10));
+        return e;
+    }
+
+    /** The S-expression for {@code chain(depth)} */
+    static String chainText(int depth) {
+        StringBuilder ir = new StringBuilder();
+        for (int i = 0; i < depth; i++)
+            ir.append("(ADD ");
+        ir.append("(CONST 0)");
+        for (int i = 1; i <= depth; i++)
+            ir.append(" (CONST ").append(i % 10).append("))");
+        return ir.toString();
+    }
+
+    /** The number of ADDs down the left spine of {@code e} */
+    static int depth(IRExpr e) {
+        int n = 0;
+        for (; e instanceof IRBinOp; e = ((IRBinOp) e).left())
+            n++;
+        return n;
+    }
+}
@@ -0,0 +1,514 @@
+package mjw297;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import edu.cornell.cs.cs4120.xic.ir.IRCompUnit;
+import edu.cornell.cs.cs4120.xic.ir.IRInterner;
+import edu.cornell.cs.cs4120.xic.ir.interpret.BytecodeSimulator;
+import edu.cornell.cs.cs4120.xic.ir.interpret.Collector;
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator;
+import edu.cornell.cs.cs4120.xic.ir.interpret.Profiler;
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator.Trap;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRLexer;
+import edu.cornell.cs.cs4120.xic.ir.parse.IRParser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Conformance tests that every engine {@link IrInterpreter} can run IR with
+ * has to pass.
+ */
+@RunWith(Parameterized.class)
+public class IRSimulatorTest {
+    @Parameters(name = "{0}")
+    public static Collection<Object[]> engines() {
+        return Arrays.asList(
+            Arrays.stream(IrInterpreter.ENGINES)
+                  .map(engine -> new Object[] {engine})
+                  .toArray(Object[][]::new)
+        );
+    }
+
+    @Parameter
+    public String engine;
+
+    private static final String OPS = String.join("\n",
+        "(COMPUNIT ops",
+        "    (FUNC binops",
+        "        (SEQ",
+        "            (MOVE (TEMP x) (TEMP _ARG0))",
+        "            (MOVE (TEMP y) (TEMP _ARG1))",
+        "            (MOVE (TEMP s) (ADD (TEMP x) (TEMP y)))",
+        "            (MOVE (TEMP s) (XOR (TEMP s) (MUL (SUB (TEMP x) (TEMP y)) (CONST 31))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (HMUL (TEMP x) (CONST 9223372036854775807))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (DIV (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (MOD (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (AND (TEMP x) (CONST 255))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (OR (TEMP x) (CONST 4096))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (LSHIFT (TEMP y) (CONST 3))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (RSHIFT (CONST -64) (CONST 2))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (ARSHIFT (CONST -64) (CONST 2))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (EQ (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (NEQ (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (LT (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (GT (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (LEQ (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (GEQ (TEMP x) (TEMP y))))",
+        "            (MOVE (TEMP _RET0) (TEMP s))",
+        "            (RETURN)))",
+        "    (FUNC pair",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (ADD (TEMP _ARG0) (CONST 1)))",
+        "            (MOVE (TEMP _RET1) (MUL (TEMP _ARG0) (CONST 2)))",
+        "            (RETURN)))",
+        "    (FUNC control",
+        "        (SEQ",
+        "            (MOVE (TEMP n) (TEMP _ARG0))",
+        "            (MOVE (TEMP acc) (CONST 0))",
+        "            (LABEL control_head)",
+        "            (CJUMP (LEQ (TEMP n) (CONST 0)) control_done)",
+        "            (MOVE (TEMP p) (CALL (NAME pair) (TEMP n)))",
+        "            (MOVE (TEMP q) (TEMP _RET1))",
+        "            (MOVE (TEMP acc) (ADD (TEMP acc) (ADD (TEMP p) (TEMP q))))",
+        "            (EXP (CALL (NAME pair) (CONST 0)))",
+        "            (MOVE (TEMP acc) (ADD (TEMP acc) (ESEQ (MOVE (TEMP n) (SUB (TEMP n) (CONST 1))) (TEMP n))))",
+        "            (JUMP (NAME control_head))",
+        "            (LABEL control_done)",
+        "            (MOVE (TEMP _RET0) (TEMP acc))",
+        "            (RETURN)))",
+        "    (FUNC print",
+        "        (SEQ",
+        "            (MOVE (TEMP s) (CALL (NAME _IunparseInt_aii) (TEMP _ARG0)))",
+        "            (EXP (CALL (NAME _Iprint_pai) (TEMP s)))",
+        "            (EXP (CALL (NAME _Iprintln_pai) (TEMP s)))",
+        "            (MOVE (TEMP r) (CALL (NAME _IparseInt_t2ibai) (TEMP s)))",
+        "            (MOVE (TEMP ok) (TEMP _RET1))",
+        "            (EXP (CALL (NAME _Iassert_pb) (TEMP ok)))",
+        "            (MOVE (TEMP _RET0) (ADD (TEMP r) (MEM (SUB (TEMP s) (CONST 8)))))",
+        "            (RETURN)))",
+        "    (FUNC divzero",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (DIV (TEMP _ARG0) (CONST 0)))",
+        "            (RETURN)))",
+        "    (FUNC nolabel",
+        "        (SEQ",
+        "            (CJUMP (CONST 1) nowhere)",
+        "            (RETURN)))",
+        "    (FUNC fallthrough",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (CONST 7))))",
+        "    (FUNC oob",
+        "        (SEQ",
+        "            (EXP (CALL (NAME _I_outOfBounds_p)))",
+        "            (RETURN)))",
+        "    (FUNC unaligned",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (MEM (CONST 4)))",
+        "            (RETURN))))"
+    );
+
+    private static final String WORKLOAD = String.join("\n",
+        "(COMPUNIT workload",
+        "    (FUNC fib",
+        "        (SEQ",
+        "            (MOVE (TEMP n) (TEMP _ARG0))",
+        "            (CJUMP (LT (TEMP n) (CONST 2)) fib_base fib_rec)",
+        "            (LABEL fib_base)",
+        "            (MOVE (TEMP _RET0) (TEMP n))",
+        "            (RETURN)",
+        "            (LABEL fib_rec)",
+        "            (MOVE (TEMP a) (CALL (NAME fib) (SUB (TEMP n) (CONST 1))))",
+        "            (MOVE (TEMP b) (CALL (NAME fib) (SUB (TEMP n) (CONST 2))))",
+        "            (MOVE (TEMP _RET0) (ADD (TEMP a) (TEMP b)))",
+        "            (RETURN)))",
+        "    (FUNC arith",
+        "        (SEQ",
+        "            (MOVE (TEMP n) (TEMP _ARG0))",
+        "            (MOVE (TEMP i) (CONST 0))",
+        "            (MOVE (TEMP s) (CONST 0))",
+        "            (LABEL arith_head)",
+        "            (CJUMP (GEQ (TEMP i) (TEMP n)) arith_done arith_body)",
+        "            (LABEL arith_body)",
+        "            (MOVE (TEMP t) (MOD (MUL (TEMP i) (TEMP i)) (CONST 7)))",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (XOR (TEMP t) (DIV (TEMP i) (CONST 3)))))",
+        "            (MOVE (TEMP i) (ADD (TEMP i) (CONST 1)))",
+        "            (JUMP (NAME arith_head))",
+        "            (LABEL arith_done)",
+        "            (MOVE (TEMP _RET0) (TEMP s))",
+        "            (RETURN)))",
+        "    (FUNC arrays",
+        "        (SEQ",
+        "            (MOVE (TEMP n) (TEMP _ARG0))",
+        "            (MOVE (TEMP a) (CALL (NAME _I_alloc_i) (MUL (TEMP n) (CONST 8))))",
+        "            (MOVE (TEMP i) (CONST 0))",
+        "            (LABEL arrays_fill)",
+        "            (CJUMP (GEQ (TEMP i) (TEMP n)) arrays_filled arrays_fill_body)",
+        "            (LABEL arrays_fill_body)",
+        "            (MOVE (MEM (ADD (TEMP a) (MUL (TEMP i) (CONST 8)))) (MUL (TEMP i) (TEMP i)))",
+        "            (MOVE (TEMP i) (ADD (TEMP i) (CONST 1)))",
+        "            (JUMP (NAME arrays_fill))",
+        "            (LABEL arrays_filled)",
+        "            (MOVE (TEMP s) (CONST 0))",
+        "            (MOVE (TEMP i) (CONST 0))",
+        "            (LABEL arrays_sum)",
+        "            (CJUMP (GEQ (TEMP i) (TEMP n)) arrays_done arrays_sum_body)",
+        "            (LABEL arrays_sum_body)",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (MEM (ADD (TEMP a) (MUL (TEMP i) (CONST 8))))))",
+        "            (MOVE (TEMP i) (ADD (TEMP i) (CONST 1)))",
+        "            (JUMP (NAME arrays_sum))",
+        "            (LABEL arrays_done)",
+        "            (MOVE (TEMP _RET0) (TEMP s))",
+        "            (RETURN))))"
+    );
+
+    private static final String JUMPS = String.join("\n",
+        "(COMPUNIT jump",
+        "    (FUNC jumper",
+        "        (SEQ",
+        "            (MOVE (TEMP x) (TEMP _ARG0))",
+        "            (MOVE (TEMP y) (CONST 100))",
+        "            (JUMP (NAME landing))",
+        "            (RETURN)))",
+        "    (FUNC other",
+        "        (SEQ",
+        "            (MOVE (TEMP x) (CONST 1))",
+        "            (LABEL landing)",
+        "            (MOVE (TEMP x) (ADD (TEMP x) (CONST 1)))",
+        "            (CJUMP (LT (TEMP x) (CONST 10)) back)",
+        "            (MOVE (TEMP _RET0) (TEMP x))",
+        "            (RETURN)",
+        "            (LABEL back)",
+        "            (JUMP (NAME home))))",
+        "    (FUNC third",
+        "        (SEQ",
+        "            (LABEL home)",
+        "            (MOVE (TEMP _RET0) (ADD (TEMP x) (TEMP y)))",
+        "            (RETURN))))"
+    );
+
+    private static final String HEAP = String.join("\n",
+        "(COMPUNIT heap",
+        "    (FUNC alloc",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (CALL (NAME _I_alloc_i) (TEMP _ARG0)))",
+        "            (RETURN)))",
+        "    (FUNC poke",
+        "        (SEQ",
+        "            (MOVE (MEM (TEMP _ARG0)) (TEMP _ARG1))",
+        "            (MOVE (TEMP _RET0) (MEM (TEMP _ARG0)))",
+        "            (RETURN))))"
+    );
+
+    private static final String CHURN = String.join("\n",
+        "(COMPUNIT churn",
+        "    (FUNC churn",
+        "        (SEQ",
+        "            (MOVE (TEMP n) (TEMP _ARG0))",
+        "            (MOVE (TEMP list) (CONST 0))",
+        "            (MOVE (TEMP i) (CONST 0))",
+        "            (LABEL churn_head)",
+        "            (CJUMP (GEQ (TEMP i) (TEMP n)) churn_done)",
+        "            (MOVE (TEMP junk) (CALL (NAME _I_alloc_i) (CONST 512)))",
+        "            (MOVE (MEM (TEMP junk)) (TEMP i))",
+        "            (CJUMP (NEQ (MOD (TEMP i) (CONST 10)) (CONST 0)) churn_next)",
+        "            (MOVE (TEMP cell) (CALL (NAME _I_alloc_i) (CONST 16)))",
+        "            (MOVE (MEM (TEMP cell)) (TEMP i))",
+        "            (MOVE (MEM (ADD (TEMP cell) (CONST 8))) (TEMP list))",
+        "            (MOVE (TEMP list) (TEMP cell))",
+        "            (LABEL churn_next)",
+        "            (MOVE (TEMP i) (ADD (TEMP i) (CONST 1)))",
+        "            (JUMP (NAME churn_head))",
+        "            (LABEL churn_done)",
+        "            (MOVE (TEMP s) (CONST 0))",
+        "            (LABEL sum_head)",
+        "            (CJUMP (EQ (TEMP list) (CONST 0)) sum_done)",
+        "            (MOVE (TEMP s) (ADD (TEMP s) (MEM (TEMP list))))",
+        "            (MOVE (TEMP list) (MEM (ADD (TEMP list) (CONST 8))))",
+        "            (JUMP (NAME sum_head))",
+        "            (LABEL sum_done)",
+        "            (MOVE (TEMP _RET0) (TEMP s))",
+        "            (RETURN))))"
+    );
+
+    private static final String ECHO = String.join("\n",
+        "(COMPUNIT echo",
+        "    (FUNC echo",
+        "        (SEQ",
+        "            (MOVE (TEMP c) (CALL (NAME _Igetchar_i)))",
+        "            (LABEL echo_head)",
+        "            (MOVE (TEMP eof) (CALL (NAME _Ieof_b)))",
+        "            (CJUMP (TEMP eof) echo_done)",
+        "            (MOVE (TEMP s) (CALL (NAME _Ireadln_ai)))",
+        "            (EXP (CALL (NAME _Iprint_pai) (TEMP s)))",
+        "            (EXP (CALL (NAME _Iprintln_pai) (TEMP s)))",
+        "            (JUMP (NAME echo_head))",
+        "            (LABEL echo_done)",
+        "            (EXP (CALL (NAME _Iprint_pai) (TEMP s)))",
+        "            (MOVE (TEMP _RET0) (ADD (MUL (TEMP c) (CONST 1000)) (CALL (NAME _Igetchar_i))))",
+        "            (RETURN))))"
+    );
+
+    private static final String READ_TWO = String.join("\n",
+        "(COMPUNIT two",
+        "    (FUNC two",
+        "        (SEQ",
+        "            (EXP (CALL (NAME _Iprintln_pai) (CALL (NAME _Ireadln_ai))))",
+        "            (EXP (CALL (NAME _Iprintln_pai) (CALL (NAME _Ireadln_ai))))",
+        "            (RETURN))))"
+    );
+
+    private static final String GARBAGE = String.join("\n",
+        "(COMPUNIT garbage",
+        "    (FUNC garbage",
+        "        (SEQ",
+        "            (MOVE (TEMP _RET0) (TEMP x))",
+        "            (RETURN)))",
+        "    (FUNC twice",
+        "        (SEQ",
+        "            (MOVE (TEMP a) (CALL (NAME garbage)))",
+        "            (MOVE (TEMP _RET0) (SUB (TEMP a) (CALL (NAME garbage))))",
+        "            (RETURN))))"
+    );
+
+    private IRSimulator simulator(String ir) {
+        return simulator(ir, IRSimulator.DEFAULT_HEAP_SIZE);
+    }
+
+    private IRSimulator simulator(String ir, int heapSize) {
+        try {
+            IRParser parser = new IRParser(new IRLexer(new StringReader(ir)));
+            return IrInterpreter.simulator(engine, parser.parse().<IRCompUnit> value(),
+                                           heapSize);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private void assertTraps(String message, Runnable run) {
+        try {
+            run.run();
+            fail("should have trapped with " + message);
+        } catch (Trap e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    private void assertTraps(String message, String function) {
+        try {
+            simulator(OPS).call(function);
+            fail(function + " should have trapped");
+        } catch (Trap e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+
+    @Test
+    public void testBinops() {
+        assertEquals(4611686018427425602L, simulator(OPS).call("binops", 1000, 7));
+        assertEquals(4611686018427388385L, simulator(OPS).call("binops", -5, 3));
+    }
+
+    @Test
+    public void testControl() {
+        assertEquals(220, simulator(OPS).call("control", 10));
+        assertEquals(0, simulator(OPS).call("control", 0));
+    }
+
+    @Test
+    public void testLibrary() {
+        PrintStream out = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            assertEquals(12350, simulator(OPS).call("print", 12345));
+        } finally {
+            System.setOut(out);
+        }
+        assertEquals("1234512345" + System.lineSeparator(), bytes.toString());
+    }
+
+    @Test
+    public void testInput() throws Exception {
+        IRParser parser = new IRParser(new IRLexer(new StringReader(ECHO)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] in = "\u00e9ab\u00e7\r\n\r\nlast".getBytes(StandardCharsets.UTF_8);
+        IRSimulator sim = IrInterpreter.simulator(engine, parser.parse().<IRCompUnit> value(),
+                IRSimulator.DEFAULT_HEAP_SIZE, new ByteArrayInputStream(in),
+                new PrintStream(bytes, true, "UTF-8"));
+        assertEquals(0xe9 * 1000 - 1, sim.call("echo"));
+        String nl = System.lineSeparator();
+        // Output that does not end a line is written when the program ends.
+        assertEquals("ab\u00e7ab\u00e7" + nl + nl + "lastlast" + nl + "last",
+                     new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testInteractiveInput() throws Exception {
+        // Like a terminal: each line arrives alone, and reading past the
+        // last one would wait forever.
+        Iterator<String> lines = Arrays.asList("a\r", "\nb\r").iterator();
+        InputStream in = new InputStream() {
+            @Override
+            public int read() {
+                throw new AssertionError("read ahead");
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (!lines.hasNext()) throw new AssertionError("read ahead");
+                byte[] line = lines.next().getBytes(StandardCharsets.UTF_8);
+                System.arraycopy(line, 0, b, off, line.length);
+                return line.length;
+            }
+        };
+        IRParser parser = new IRParser(new IRLexer(new StringReader(READ_TWO)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        IRSimulator sim = IrInterpreter.simulator(engine, parser.parse().<IRCompUnit> value(),
+                IRSimulator.DEFAULT_HEAP_SIZE, in, new PrintStream(bytes, true, "UTF-8"));
+        sim.call("two");
+        String nl = System.lineSeparator();
+        assertEquals("a" + nl + "b" + nl, new String(bytes.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testTraps() {
+        assertTraps("Division by zero!", "divzero");
+        assertTraps("Could not find label 'nowhere'!", "nolabel");
+        assertTraps("Out of bounds!", "oob");
+        assertTraps("Unaligned memory access: 4 (word size=8)", "unaligned");
+    }
+
+    @Test
+    public void testFallthrough() {
+        // Without a RETURN, execution runs on into the next function.
+        assertTraps("Out of bounds!", "fallthrough");
+    }
+
+    @Test
+    public void testJumpBetweenFunctions() {
+        // A frame keeps its temps when control jumps into another function.
+        assertEquals(104, simulator(JUMPS).call("jumper", 3));
+        assertEquals(21, simulator(JUMPS).call("jumper", 20));
+    }
+
+    @Test
+    public void testWorkload() {
+        assertEquals(610, simulator(WORKLOAD).call("fib", 15));
+        assertEquals(665682, simulator(WORKLOAD).call("arith", 2000));
+        assertEquals(332833500, simulator(WORKLOAD).call("arrays", 1000));
+    }
+
+    @Test
+    public void testInterned() throws Exception {
+        // Shared subexpressions run like separate copies of them.
+        IRParser parser = new IRParser(new IRLexer(new StringReader(WORKLOAD)));
+        IRInterner interner = new IRInterner();
+        IRCompUnit compUnit = (IRCompUnit) interner.intern(parser.parse().<IRCompUnit> value());
+        IRSimulator sim = IrInterpreter.simulator(engine, compUnit);
+        assertEquals(610, sim.call("fib", 15));
+        assertEquals(665682, sim.call("arith", 2000));
+        assertEquals(332833500, sim.call("arrays", 1000));
+    }
+
+    @Test
+    public void testGarbage() {
+        // Every frame's temps start out as garbage of their own.
+        IRSimulator sim = simulator(GARBAGE);
+        Set<Long> values = new HashSet<>();
+        for (int i = 0; i < 10; i++)
+            values.add(sim.call("garbage"));
+        assertEquals(10, values.size());
+        assertTrue(sim.call("twice") != 0);
+    }
+
+    @Test
+    public void testHeap() {
+        IRSimulator sim = simulator(HEAP, 1024);
+        assertEquals(0, sim.call("alloc", 8000));
+        assertEquals(8000, sim.call("alloc", 192));
+        assertTraps("Out of memory!", () -> sim.call("alloc", 8));
+        assertEquals(7, sim.call("poke", 8184, 7));
+        assertTraps("Memory access outside the heap: 8192",
+                    () -> sim.call("poke", 8192, 7));
+        assertTraps("Memory access outside the heap: -8",
+                    () -> sim.call("poke", -8, 7));
+
+        // Only the pages that are used are ever allocated.
+        IRSimulator big = simulator(HEAP, Integer.MAX_VALUE);
+        assertEquals(42, big.call("poke", 8L * (Integer.MAX_VALUE - 1), 42));
+    }
+
+    @Test
+    public void testCollector() {
+        // About a megabyte of garbage goes through a 128 KiB heap, while a
+        // list of every tenth index stays reachable.
+        assertTraps("Out of memory!", () -> simulator(CHURN, 16384).call("churn", 2000));
+
+        IRSimulator sim = simulator(CHURN, 16384);
+        Collector collector = sim.enableCollector();
+        assertEquals(199000, sim.call("churn", 2000));
+        assertTrue(collector.collections() > 0);
+        assertTrue(collector.freedBytes() > 1 << 19);
+        assertTrue(collector.peakLiveBytes() <= 16384 * 8);
+    }
+
+    @Test
+    public void testProfiler() {
+        IRSimulator fib = simulator(WORKLOAD);
+        Profiler profiler = fib.enableProfiler();
+        assertEquals(55, fib.call("fib", 10));
+        assertEquals(177, profiler.calls("fib"));
+        assertEquals(profiler.total(), profiler.exclusive("fib"));
+        assertEquals(profiler.total(), profiler.inclusive("fib"));
+
+        IRSimulator control = simulator(OPS);
+        profiler = control.enableProfiler();
+        assertEquals(220, control.call("control", 10));
+        assertEquals(20, profiler.calls("pair"));
+        assertEquals(profiler.total(), profiler.inclusive("control"));
+        assertEquals(profiler.total(),
+                     profiler.exclusive("control") + profiler.exclusive("pair"));
+        assertEquals(profiler.exclusive("pair"), profiler.inclusive("pair"));
+        assertEquals(0, profiler.exclusive("nothing"));
+        assertEquals(0, profiler.inclusive("nothing"));
+
+        ByteArrayOutputStream folded = new ByteArrayOutputStream();
+        profiler.writeFoldedStacks(new PrintStream(folded));
+        assertEquals(new HashSet<>(Arrays.asList(
+                         "control " + profiler.exclusive("control"),
+                         "control;pair " + profiler.exclusive("pair"))),
+                     new HashSet<>(Arrays.asList(folded.toString().split("\\R"))));
+    }
+
+    @Test
+    public void testBytecodeFallsBack() {
+        // Functions whose control flow leaves them stay in the simulator.
+        assumeTrue(engine.equals("bytecode"));
+        BytecodeSimulator ops = (BytecodeSimulator) simulator(OPS);
+        assertTrue(ops.isCompiled("binops"));
+        assertTrue(ops.isCompiled("control"));
+        assertFalse(ops.isCompiled("fallthrough"));
+        BytecodeSimulator jumps = (BytecodeSimulator) simulator(JUMPS);
+        assertFalse(jumps.isCompiled("jumper"));
+        assertFalse(jumps.isCompiled("other"));
+        assertTrue(((BytecodeSimulator) simulator(WORKLOAD)).isCompiled("fib"));
+    }
+}
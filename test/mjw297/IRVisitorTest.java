@@ -0,0 +1,116 @@
+package mjw297;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cornell.cs.cs4120.xic.ir.IRBinOp;
+import edu.cornell.cs.cs4120.xic.ir.IRConst;
+import edu.cornell.cs.cs4120.xic.ir.IRExp;
+import edu.cornell.cs.cs4120.xic.ir.IRMove;
+import edu.cornell.cs.cs4120.xic.ir.IRNode;
+import edu.cornell.cs.cs4120.xic.ir.IRSeq;
+import edu.cornell.cs.cs4120.xic.ir.IRTemp;
+import edu.cornell.cs.cs4120.xic.ir.visit.AggregateVisitor;
+import edu.cornell.cs.cs4120.xic.ir.visit.CheckCanonicalIRVisitor;
+import edu.cornell.cs.cs4120.xic.ir.visit.IRVisitor;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class IRVisitorTest {
+    /** Replaces ADDs of constants with their sum */
+    private static class Folder extends IRVisitor {
+        @Override
+        protected IRNode leave(IRNode parent, IRNode n, IRNode n_, IRVisitor v_) {
+            if (n_ instanceof IRBinOp) {
+                IRBinOp b = (IRBinOp) n_;
+                if (b.left() instanceof IRConst && b.right() instanceof IRConst)
+                    return new IRConst(((IRConst) b.left()).value()
+                                       + ((IRConst) b.right()).value());
+            }
+            return n_;
+        }
+    }
+
+    /** Counts nodes */
+    private static class Counter extends AggregateVisitor<Long> {
+        @Override
+        public Long unit() {
+            return 0L;
+        }
+
+        @Override
+        public Long bind(Long r1, Long r2) {
+            return r1 + r2;
+        }
+
+        @Override
+        protected Long leave(IRNode parent, IRNode n, Long r, AggregateVisitor<Long> v_) {
+            return r + 1;
+        }
+    }
+
+    @Test
+    public void testDeepTrees() {
+        int depth = IRSamples.DEPTH;
+        IRNode folded = new Folder().visit(new IRExp(IRSamples.chain(depth)));
+        // Each run of ten right operands, 1 through 9 then 0, adds 45.
+        assertEquals(45L * depth / 10, ((IRConst) ((IRExp) folded).expr()).value());
+
+        assertEquals(2L * depth + 2, (long) new Counter().visit(new IRExp(IRSamples.chain(depth))));
+        assertTrue(new CheckCanonicalIRVisitor().visit(new IRExp(IRSamples.chain(depth))));
+    }
+
+    @Test
+    public void testOrder() {
+        IRTemp x = new IRTemp("x");
+        IRSeq seq = new IRSeq(
+            new IRMove(x, new IRBinOp(IRBinOp.OpType.ADD, new IRConst(1), new IRConst(2))),
+            new IRExp(x)
+        );
+        List<String> events = new ArrayList<>();
+        IRNode result = new IRVisitor() {
+            @Override
+            protected IRNode override(IRNode parent, IRNode n) {
+                // Don't descend into the ADD.
+                return n instanceof IRBinOp ? n : null;
+            }
+
+            @Override
+            protected IRVisitor enter(IRNode parent, IRNode n) {
+                events.add("enter " + n.label() + " in "
+                           + (parent == null ? "nothing" : parent.label()));
+                return this;
+            }
+
+            @Override
+            protected IRNode leave(IRNode parent, IRNode n, IRNode n_, IRVisitor v_) {
+                events.add("leave " + n.label());
+                return n_;
+            }
+        }.visit(seq);
+        assertSame(seq, result);
+        assertEquals(Arrays.asList(
+            "enter SEQ in nothing",
+            "enter MOVE in SEQ",
+            "enter TEMP(x) in MOVE",
+            "leave TEMP(x)",
+            "leave MOVE",
+            "enter EXP in SEQ",
+            "enter TEMP(x) in EXP",
+            "leave TEMP(x)",
+            "leave EXP",
+            "leave SEQ"
+        ), events);
+
+        // Only the nodes above a changed node are rebuilt.
+        IRSeq folded = (IRSeq) new Folder().visit(seq);
+        assertFalse(folded == seq);
+        assertEquals(3, ((IRConst) ((IRMove) folded.stmts().get(0)).expr()).value());
+        assertSame(seq.stmts().get(1), folded.stmts().get(1));
+        assertFalse(new CheckCanonicalIRVisitor().visit(new IRSeq(seq)));
+    }
+}
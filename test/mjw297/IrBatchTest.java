@@ -0,0 +1,94 @@
+package mjw297;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import edu.cornell.cs.cs4120.xic.ir.interpret.IRSimulator;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IrBatchTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static final String ECHO = String.join("\n",
+        "(COMPUNIT echo",
+        "    (FUNC _Imain_paai",
+        "        (SEQ",
+        "            (MOVE (TEMP s) (CALL (NAME _Ireadln_ai)))",
+        "            (EXP (CALL (NAME _Iprintln_pai) (TEMP s)))",
+        "            (EXP (CALL (NAME _Iassert_pb) (EQ (MEM (SUB (TEMP s) (CONST 8))) (CONST 5))))",
+        "            (RETURN))))"
+    );
+
+    private Path write(String name, String contents) throws IOException {
+        Path file = folder.getRoot().toPath().resolve(name);
+        Files.write(file, contents.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private IrBatch.Result run(Path file) {
+        return IrBatch.run(file, "simulator", IRSimulator.DEFAULT_HEAP_SIZE);
+    }
+
+    @Test
+    public void testCompare() throws IOException {
+        Path pass = write("pass.ir", ECHO);
+        write("pass.in", "hello\n");
+        write("pass.expected", "hello\n");
+        assertTrue(run(pass).toString(), run(pass).passed);
+
+        Path fail = write("fail.ir", ECHO);
+        write("fail.in", "howdy\n");
+        write("fail.expected", "hello\n");
+        IrBatch.Result result = run(fail);
+        assertFalse(result.passed);
+        assertEquals("line 1: expected \"hello\", got \"howdy\"", result.message);
+
+        Path trap = write("trap.ir", ECHO);
+        write("trap.in", "hi\n");
+        write("trap.expected", "hi\ntrap: Assertion error!\n");
+        assertTrue(run(trap).toString(), run(trap).passed);
+
+        Path missing = write("missing.ir", ECHO);
+        assertEquals("no missing.expected", run(missing).message);
+
+        assertEquals(Arrays.asList("fail.ir", "missing.ir", "pass.ir", "trap.ir"),
+                     IrBatch.programs(folder.getRoot().toPath()).stream()
+                            .map(p -> p.getFileName().toString())
+                            .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        // Each simulator reads and writes only its own streams.
+        for (int i = 0; i < 32; i++) {
+            write(i + ".ir", ECHO);
+            write(i + ".in", String.format("%05d\n", i));
+            write(i + ".expected", String.format("%05d\n", i));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<IrBatch.Result>> results = IrBatch.programs(folder.getRoot().toPath())
+                .stream()
+                .map(file -> pool.submit(() -> run(file)))
+                .collect(Collectors.toList());
+            for (Future<IrBatch.Result> result : results)
+                assertTrue(result.get().toString(), result.get().passed);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package mjw297;
+
+import java.io.StringReader;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class WorkloadGenTest {
+    private static WorkloadGen.Config config(int depth, int width, int arrays, long seed) {
+        WorkloadGen.Config config = new WorkloadGen.Config();
+        config.functions = 5;
+        config.depth = depth;
+        config.width = width;
+        config.arrays = arrays;
+        config.seed = seed;
+        return config;
+    }
+
+    private static void assertParses(String source) {
+        Actions.Parsed parsed = Actions.parse(new StringReader(source));
+        assertTrue(source, parsed.prog.isPresent());
+    }
+
+    @Test
+    public void testParses() {
+        for (long seed = 0; seed < 10; seed++) {
+            assertParses(new WorkloadGen(config(3, 4, 50, seed)).generate());
+            assertParses(new WorkloadGen(config(0, 1, 0, seed)).generate());
+            assertParses(new WorkloadGen(config(6, 9, 100, seed)).generate());
+        }
+    }
+
+    @Test
+    public void testDeterministic() {
+        assertEquals(
+            new WorkloadGen(config(3, 4, 50, 42)).generate(),
+            new WorkloadGen(config(3, 4, 50, 42)).generate()
+        );
+    }
+
+    @Test
+    public void testLines() {
+        WorkloadGen.Config config = config(3, 4, 50, 0);
+        config.lines = 5000;
+        String source = new WorkloadGen(config).generate();
+        int lines = source.split("\n").length;
+        assertTrue(lines >= 5000);
+        assertTrue(lines < 6000);
+    }
+}